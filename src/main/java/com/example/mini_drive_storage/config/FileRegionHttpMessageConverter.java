@@ -0,0 +1,89 @@
+package com.example.mini_drive_storage.config;
+
+import com.example.mini_drive_storage.dto.FileRegion;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+// Writes FileRegion bodies. When the connector supports sendfile (Tomcat NIO/NIO2 without TLS)
+// the file is handed to the container and the kernel copies it to the socket after the handler
+// returns; otherwise it goes through FileChannel.transferTo.
+public class FileRegionHttpMessageConverter extends AbstractHttpMessageConverter<FileRegion> {
+    static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final long sendfileMinSize;
+
+    public FileRegionHttpMessageConverter(long sendfileMinSize) {
+        super(MediaType.ALL);
+        this.sendfileMinSize = sendfileMinSize;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return FileRegion.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected FileRegion readInternal(Class<? extends FileRegion> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("FileRegion is write only", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(FileRegion region, MediaType contentType) {
+        return region.count();
+    }
+
+    @Override
+    protected void writeInternal(FileRegion region, HttpOutputMessage outputMessage) throws IOException {
+        HttpServletRequest request = currentRequest();
+        if (request != null && region.count() >= sendfileMinSize
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, region.file().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, region.position());
+            request.setAttribute(SENDFILE_END, region.position() + region.count());
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(region.file(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(outputMessage.getBody());
+            long position = region.position();
+            long remaining = region.count();
+            while (remaining > 0) {
+                long written = channel.transferTo(position, remaining, target);
+                if (written <= 0) {
+                    throw new IOException("File " + region.file() + " is shorter than expected");
+                }
+                position += written;
+                remaining -= written;
+            }
+        }
+    }
+
+    private HttpServletRequest currentRequest() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes instanceof ServletRequestAttributes servletAttributes) {
+            return servletAttributes.getRequest();
+        }
+        return null;
+    }
+}
@@ -1,4 +1,5 @@
 package com.example.mini_drive_storage.config;
+import jakarta.servlet.DispatcherType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -33,6 +34,8 @@ public class SecurityConfig {
         http.csrf(csrf -> csrf.disable());
         http.authorizeHttpRequests(auth -> auth
                 .requestMatchers("/api/v1/auth/register","/api/v1/auth/login").permitAll()
+                // the request was authorized before going async (sse streams), the jwt isn't parsed again
+                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                 .anyRequest().authenticated()
         );
         // all request must be authenticated
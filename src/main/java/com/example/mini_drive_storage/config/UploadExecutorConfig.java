@@ -0,0 +1,26 @@
+package com.example.mini_drive_storage.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class UploadExecutorConfig {
+    // bounded pool for upload file copies; when it is full the request thread copies
+    // the file itself, which slows the client down instead of queueing without limit
+    @Bean(name = "uploadExecutor")
+    public Executor uploadExecutor(@Value("${upload.io-threads:8}") int ioThreads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(ioThreads);
+        executor.setMaxPoolSize(ioThreads);
+        executor.setQueueCapacity(ioThreads * 4);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("upload-io-");
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.mini_drive_storage.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+    // below this size the sendfile hand-off costs more than writing the bytes directly
+    @Value("${download.sendfile.min-size:49152}")
+    private long sendfileMinSize;
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(0, new FileRegionHttpMessageConverter(sendfileMinSize));
+    }
+}
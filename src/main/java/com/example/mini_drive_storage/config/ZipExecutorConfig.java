@@ -0,0 +1,43 @@
+package com.example.mini_drive_storage.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class ZipExecutorConfig {
+    // folder zips are long, disk heavy builds: a few workers per node. The queue is the
+    // folder_zip_archives table, a node only claims a build when one of these threads is free
+    @Bean(name = "zipExecutor")
+    public Executor zipExecutor(@Value("${download.zip.threads:2}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(0);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setThreadNamePrefix("zip-");
+        executor.initialize();
+        return executor;
+    }
+
+    // deflates entries for every archive being built, one thread per core by default.
+    // when it is saturated the archive thread compresses the entry itself
+    @Bean(name = "zipCompressionExecutor")
+    public AsyncTaskExecutor zipCompressionExecutor(@Value("${download.zip.compression-threads:0}") int threads,
+                                                    @Value("${download.zip.compression-queue-capacity:64}") int queueCapacity) {
+        int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(size);
+        executor.setMaxPoolSize(size);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("zip-deflate-");
+        executor.initialize();
+        return executor;
+    }
+}
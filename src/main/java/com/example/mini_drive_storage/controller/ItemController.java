@@ -3,19 +3,31 @@ package com.example.mini_drive_storage.controller;
 import com.example.mini_drive_storage.dto.*;
 import com.example.mini_drive_storage.entity.FolderDownloadStatus;
 import com.example.mini_drive_storage.entity.Items;
+import com.example.mini_drive_storage.enums.ArchiveFormat;
+import com.example.mini_drive_storage.service.FolderZipJobService;
+import com.example.mini_drive_storage.service.FolderZipProgressPublisher;
+import com.example.mini_drive_storage.service.FolderZipWriter;
 import com.example.mini_drive_storage.service.ItemService;
 import com.example.mini_drive_storage.service.PermissionService;
+import com.example.mini_drive_storage.utils.ConditionalRequestUtils;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.AllArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 @RestController
@@ -23,6 +35,8 @@ import java.util.*;
 @AllArgsConstructor
 public class ItemController {
     private ItemService itemService;
+    private FolderZipJobService folderZipJobService;
+    private FolderZipWriter folderZipWriter;
 
     @PostMapping(
             value = "/files",
@@ -36,6 +50,20 @@ public class ItemController {
         return ResponseEntity.ok(items);
     }
 
+    // streaming upload: the request body is the file content, no multipart buffering
+    @PutMapping("/files/content")
+    public ResponseEntity<ItemResponseDto> uploadFileContent(
+            @RequestParam("name") String name,
+            @RequestParam(value = "parentId", required = false) UUID parentId,
+            HttpServletRequest request
+    ) throws IOException {
+        String contentType = request.getContentType() != null
+                ? request.getContentType()
+                : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        ItemResponseDto item = itemService.uploadFileContent(request.getInputStream(), name, contentType, parentId);
+        return ResponseEntity.ok(item);
+    }
+
     @PostMapping(
             value = "/files",
             consumes = MediaType.APPLICATION_JSON_VALUE
@@ -49,14 +77,15 @@ public class ItemController {
     @PreAuthorize("@permissionService.canViewItem(#id)")
     @GetMapping("/{id}/download")
     // ? represent can accept any body type, because download api can return many type like Resource,JSON or no body
-    public ResponseEntity<?> downloadFile(@PathVariable UUID id) {
-        return itemService.downloadFile(id);
+    public ResponseEntity<?> downloadFile(@PathVariable UUID id, @RequestHeader HttpHeaders requestHeaders) {
+        return itemService.downloadFile(id, requestHeaders);
     }
 
     @PreAuthorize("@permissionService.canViewItem(#id)")
     @PostMapping("/{id}/download")
-    public ResponseEntity<DownloadFolderResponse> downloadFolder(@PathVariable UUID id) {
-        UUID requestId = itemService.triggerAsyncZip(id);
+    public ResponseEntity<DownloadFolderResponse> downloadFolder(@PathVariable UUID id,
+                                                                 @RequestParam(required = false) String format) {
+        UUID requestId = folderZipJobService.submit(id, ArchiveFormat.of(format));
         return ResponseEntity.ok()
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(DownloadFolderResponse.builder()
@@ -65,20 +94,65 @@ public class ItemController {
 
     }
 
+    @PreAuthorize("@permissionService.canViewItem(#id)")
+    @GetMapping("/{id}/download.zip")
+    public void downloadFolderZipStream(@PathVariable UUID id,
+                                        @RequestParam(required = false) String format,
+                                        HttpServletResponse response) throws IOException {
+        ArchiveFormat archiveFormat = ArchiveFormat.of(format);
+        Items folder = itemService.getFolderForZip(id);
+        response.setContentType(archiveFormat.getContentType());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename(folder.getName() + "." + archiveFormat.getExtension(), StandardCharsets.UTF_8)
+                .build()
+                .toString());
+        // no Content-Length, the archive goes out chunked while it is being built
+        folderZipWriter.write(folder, response.getOutputStream(), archiveFormat);
+    }
+
+    // files and folders picked together (e.g. from a search result) in one archive,
+    // permissions of the whole selection are checked in one query
+    @PreAuthorize("@permissionService.canViewItems(#request.ids)")
+    @PostMapping("/files/download.zip")
+    public void downloadSelectionZip(@Valid @RequestBody DownloadSelectionRequest request,
+                                     HttpServletResponse response) throws IOException {
+        ArchiveFormat archiveFormat = ArchiveFormat.of(request.getFormat());
+        List<SubtreeItem> selection = itemService.getSelectionForZip(request.getIds());
+        String name = request.getName() != null && !request.getName().isBlank() ? request.getName() : "download";
+        response.setContentType(archiveFormat.getContentType());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename(name + "." + archiveFormat.getExtension(), StandardCharsets.UTF_8)
+                .build()
+                .toString());
+        folderZipWriter.writeSelection(selection, response.getOutputStream(), archiveFormat);
+    }
+
     @GetMapping("/downloads/{requestId}")
     public ResponseEntity<?> pollingFolder(@PathVariable UUID requestId) {
-        FolderDownloadStatus status = itemService.getFolderDownloadStatus(requestId);
+        FolderDownloadStatus status = folderZipJobService.getStatus(requestId);
         if (status == null) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND);
         }
         Map<String, Object> body = new HashMap<>();
         body.put("status", status);
         if ("READY".equals(status.getStatus())) {
-            body.put("downloadUrl", "/api/v1/files/downloads/" + requestId + "/file");
+            body.put("downloadUrl", FolderZipProgressPublisher.downloadUrl(requestId));
         }
         return ResponseEntity.ok(body);
     }
 
+    // one long lived stream per job instead of polling the endpoint above
+    @GetMapping(value = "/downloads/{requestId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter folderDownloadEvents(@PathVariable UUID requestId) {
+        return folderZipJobService.subscribe(requestId);
+    }
+
+    @DeleteMapping("/downloads/{requestId}")
+    public ResponseEntity<?> cancelFolderDownload(@PathVariable UUID requestId) {
+        folderZipJobService.cancel(requestId);
+        return ResponseEntity.noContent().build();
+    }
+
     @GetMapping("/files/downloads/{requestId}/file")
     public ResponseEntity<?> downloadFolderZip(@PathVariable UUID requestId) throws IOException {
         System.out.println("downloadFolderZip");
@@ -92,8 +166,15 @@ public class ItemController {
     }
 
     @GetMapping("/files/shared-with-me")
-    public ResponseEntity<List<SharedItemResponseDto>> sharedWithMe() {
-        return ResponseEntity.ok(itemService.getSharedItemForCurrentUser());
+    public ResponseEntity<List<SharedItemResponseDto>> sharedWithMe(@RequestHeader HttpHeaders requestHeaders) {
+        String etag = itemService.getSharedItemsETag();
+        if (ConditionalRequestUtils.isNotModified(requestHeaders, etag, null)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .body(itemService.getSharedItemForCurrentUser());
     }
 
     @GetMapping("/files")
@@ -101,7 +182,8 @@ public class ItemController {
                                         @RequestParam(required = false) String type,
                                         @RequestParam(required = false) UUID parentId,
                                         @RequestParam(required = false) Long fromSize,
-                                        @RequestParam(required = false) Long toSize) {
+                                        @RequestParam(required = false) Long toSize,
+                                        @RequestHeader HttpHeaders requestHeaders) {
         FileSearchRequest fileSearchRequest = FileSearchRequest.builder()
                 .q(q)
                 .type(type)
@@ -109,7 +191,15 @@ public class ItemController {
                 .fromSize(fromSize)
                 .toSize(toSize)
                 .build();
-        return ResponseEntity.ok(itemService.search(fileSearchRequest));
+        List<ItemResponseDto> items = itemService.search(fileSearchRequest);
+        String etag = itemService.getSearchETag(fileSearchRequest, items);
+        if (ConditionalRequestUtils.isNotModified(requestHeaders, etag, null)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .body(items);
     }
 
     @GetMapping("/analytics/usage")
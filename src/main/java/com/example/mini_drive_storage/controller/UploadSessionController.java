@@ -0,0 +1,51 @@
+package com.example.mini_drive_storage.controller;
+
+import com.example.mini_drive_storage.dto.CreateUploadSessionRequest;
+import com.example.mini_drive_storage.dto.ItemResponseDto;
+import com.example.mini_drive_storage.dto.UploadSessionResponse;
+import com.example.mini_drive_storage.service.UploadSessionService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import lombok.AllArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/api/v1/uploads")
+@AllArgsConstructor
+public class UploadSessionController {
+    private UploadSessionService uploadSessionService;
+
+    @PostMapping
+    public ResponseEntity<UploadSessionResponse> createSession(@Valid @RequestBody CreateUploadSessionRequest request) {
+        return ResponseEntity.ok(uploadSessionService.createSession(request));
+    }
+
+    // which chunks are already stored, so the client only resends the missing ones
+    @GetMapping("/{sessionId}")
+    public ResponseEntity<UploadSessionResponse> getSession(@PathVariable UUID sessionId) {
+        return ResponseEntity.ok(uploadSessionService.getSession(sessionId));
+    }
+
+    @PutMapping("/{sessionId}/chunks/{index}")
+    public ResponseEntity<?> uploadChunk(@PathVariable UUID sessionId,
+                                         @PathVariable int index,
+                                         HttpServletRequest request) throws IOException {
+        uploadSessionService.writeChunk(sessionId, index, request.getInputStream());
+        return ResponseEntity.noContent().build();
+    }
+
+    @PostMapping("/{sessionId}/commit")
+    public ResponseEntity<ItemResponseDto> commit(@PathVariable UUID sessionId) {
+        return ResponseEntity.ok(uploadSessionService.commit(sessionId));
+    }
+
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<?> abort(@PathVariable UUID sessionId) {
+        uploadSessionService.abort(sessionId);
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.mini_drive_storage.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.UUID;
+
+@Data
+@Builder
+public class CreateUploadSessionRequest {
+    @NotBlank(message = "name is not blank")
+    private String name;
+    private UUID parentId;
+    private String mimeType;
+    @NotNull(message = "size is not null")
+    @Positive(message = "size must be positive")
+    private Long size;
+    private Long chunkSize; // optional, server default is used when missing
+}
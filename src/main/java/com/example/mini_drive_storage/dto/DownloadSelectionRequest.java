@@ -0,0 +1,25 @@
+package com.example.mini_drive_storage.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DownloadSelectionRequest {
+    @NotEmpty(message = "ids is not empty")
+    @Size(max = 1000, message = "at most 1000 items per download")
+    private List<UUID> ids;
+    // archive file name, without the extension
+    private String name;
+    // zip (default), tar or tar.zst
+    private String format;
+}
@@ -0,0 +1,10 @@
+package com.example.mini_drive_storage.dto;
+
+// level of a user on an item with the chain it was resolved on, read by FilePermissionRepo.findEffectiveLevel
+public interface EffectiveLevel {
+    // EDIT, VIEW or null when the user can't see the item
+    String getLevel();
+
+    // comma separated ids of the item and every folder above it
+    String getAncestors();
+}
@@ -0,0 +1,7 @@
+package com.example.mini_drive_storage.dto;
+
+import java.nio.file.Path;
+
+// response body for a part of a local file, written without copying it through the heap
+public record FileRegion(Path file, long position, long count) {
+}
@@ -0,0 +1,23 @@
+package com.example.mini_drive_storage.dto;
+
+import java.time.Instant;
+import java.util.UUID;
+
+// flat row of a folder subtree, read by ItemRepo.findLiveSubtree
+public interface SubtreeItem {
+    UUID getId();
+
+    UUID getParentId();
+
+    String getName();
+
+    String getType();
+
+    String getPath();
+
+    Long getSize();
+
+    String getMimeType();
+
+    Instant getUpdatedDate();
+}
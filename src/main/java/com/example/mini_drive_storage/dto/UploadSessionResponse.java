@@ -0,0 +1,33 @@
+package com.example.mini_drive_storage.dto;
+
+import com.example.mini_drive_storage.entity.UploadSession;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@Builder
+public class UploadSessionResponse {
+    private UUID id;
+    private String name;
+    private Long size;
+    private Long chunkSize;
+    private Integer chunkCount;
+    private List<Integer> receivedChunks;
+    private Instant expiresAt;
+
+    public static UploadSessionResponse from(UploadSession session, List<Integer> receivedChunks) {
+        return UploadSessionResponse.builder()
+                .id(session.getId())
+                .name(session.getName())
+                .size(session.getTotalSize())
+                .chunkSize(session.getChunkSize())
+                .chunkCount(session.getChunkCount())
+                .receivedChunks(receivedChunks)
+                .expiresAt(session.getExpiresAt())
+                .build();
+    }
+}
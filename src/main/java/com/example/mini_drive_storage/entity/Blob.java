@@ -0,0 +1,37 @@
+package com.example.mini_drive_storage.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+
+import java.time.Instant;
+
+// one physical file on disk, shared by every item whose content has the same SHA-256
+@Entity
+@Getter
+@Setter
+@Table(name = "blobs")
+@NoArgsConstructor
+@AllArgsConstructor
+@EntityListeners(AuditingEntityListener.class)
+@Builder
+public class Blob {
+    @Id
+    @Column(length = 64)
+    private String hash; // hex encoded SHA-256 of the content
+
+    @Column(nullable = false)
+    private Long size; // logical size, what Items.size reports
+
+    private Long storedSize; // bytes in the backend, smaller when the blob is compressed
+
+    @Column(nullable = false)
+    private String path;
+
+    @Column(nullable = false)
+    private long refCount;
+
+    @CreatedDate
+    private Instant createdDate;
+}
@@ -18,6 +18,9 @@ import java.util.UUID;
         name = "file_permission",
         uniqueConstraints = {
                 @UniqueConstraint(columnNames = {"item_id", "user_id"})
+        },
+        indexes = {
+                @Index(name = "idx_file_permission_user_id", columnList = "user_id")
         }
 )
 
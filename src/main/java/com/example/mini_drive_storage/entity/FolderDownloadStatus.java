@@ -1,11 +1,38 @@
 package com.example.mini_drive_storage.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
+import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
+import java.time.Instant;
+import java.util.UUID;
+
+// state of one folder zip job as the client sees it, read from its FolderZipJob and FolderZipArchive
 @Data
+@Builder
+@NoArgsConstructor
 @AllArgsConstructor
 public class FolderDownloadStatus {
+    @JsonIgnore
+    private UUID requestId;
     private String status;
-    private String zipPath;
+    @JsonIgnore
+    private String zipPath; // storage key of the built archive
+    @JsonIgnore
+    private UUID userId;
+    private UUID folderId;
+    private String format;
+    private int entriesDone;
+    private int entriesTotal;
+    private long bytesDone;
+    private long bytesTotal;
+    private Instant createdAt;
+    private Instant finishedAt;
+
+    @JsonIgnore
+    public boolean isActive() {
+        return "PENDING".equals(status) || "PROCESSING".equals(status);
+    }
 }
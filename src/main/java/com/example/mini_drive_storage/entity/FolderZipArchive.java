@@ -0,0 +1,47 @@
+package com.example.mini_drive_storage.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+import java.util.UUID;
+
+// archive of one folder content fingerprint, shared by every job, user and node asking for it.
+// PENDING until a node claims it, BUILDING while claimedBy keeps heartbeatAt fresh, then READY or FAILED
+@Entity
+@Getter
+@Setter
+@Table(name = "folder_zip_archives")
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class FolderZipArchive {
+    @Id
+    @Column(length = 64)
+    private String fingerprint;
+
+    @Column(nullable = false)
+    private UUID folderId;
+    @Column(length = 16)
+    private String format; // ArchiveFormat extension, null for zips built before the other formats
+    @Column(nullable = false, length = 16)
+    private String status;
+
+    private String archiveKey; // storage key once READY
+    private Long size;
+
+    private int entriesDone;
+    private int entriesTotal;
+    private long bytesDone;
+    private long bytesTotal;
+
+    @Column(length = 64)
+    private String claimedBy; // node building it
+    private Instant heartbeatAt;
+    private int attempts;
+
+    @Column(nullable = false)
+    private Instant createdDate;
+    @Column(nullable = false)
+    private Instant lastAccessedAt; // eviction order of the archive cache
+}
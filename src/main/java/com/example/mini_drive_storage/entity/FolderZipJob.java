@@ -0,0 +1,49 @@
+package com.example.mini_drive_storage.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.UuidGenerator;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+
+import java.time.Instant;
+import java.util.UUID;
+
+// one folder download request, its id is the requestId given to the client.
+// progress and the archive itself live on the FolderZipArchive of its fingerprint
+@Entity
+@Getter
+@Setter
+@Table(
+        name = "folder_zip_jobs",
+        indexes = {
+                @Index(name = "idx_folder_zip_jobs_fingerprint", columnList = "fingerprint"),
+                @Index(name = "idx_folder_zip_jobs_owner_status", columnList = "owner_id, status")
+        }
+)
+@NoArgsConstructor
+@AllArgsConstructor
+@EntityListeners(AuditingEntityListener.class)
+@Builder
+public class FolderZipJob {
+    @Id
+    @UuidGenerator
+    private UUID id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "owner_id", nullable = false)
+    private Users owner;
+
+    // plain id, the folder can be purged from the trash while the job is still kept
+    @Column(nullable = false)
+    private UUID folderId;
+    @Column(nullable = false, length = 64)
+    private String fingerprint;
+    @Column(nullable = false, length = 16)
+    private String status; // PENDING, READY, FAILED, CANCELLED
+
+    private Instant finishedAt;
+    private Instant expiresAt; // set once finished, the job is dropped after it
+    @CreatedDate
+    private Instant createdDate;
+}
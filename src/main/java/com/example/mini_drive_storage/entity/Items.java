@@ -14,7 +14,15 @@ import java.util.UUID;
 @Entity
 @Getter
 @Setter
-@Table(name = "items")
+@Table(
+        name = "items",
+        indexes = {
+                // walked by the recursive subtree queries
+                @Index(name = "idx_items_parent_id", columnList = "parent_id"),
+                // owned items of a search, and the folders others may have put items into
+                @Index(name = "idx_items_owner_id", columnList = "owner_id")
+        }
+)
 @NoArgsConstructor
 @AllArgsConstructor
 @EntityListeners(AuditingEntityListener.class)
@@ -29,6 +37,8 @@ public class Items {
     private Long size;
     private String path;
     private String mimeType; // content type of files : pdf,png,...
+    @Column(length = 64)
+    private String contentHash; // sha-256 of the blob this file points to
 
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
@@ -0,0 +1,35 @@
+package com.example.mini_drive_storage.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+import java.util.UUID;
+
+// a share that changed, kept for a while so every node drops its cached decisions for it,
+// see PermissionDecisionCache.pollChanges
+@Entity
+@Getter
+@Setter
+@Table(
+        name = "permission_changes",
+        indexes = {
+                @Index(name = "idx_permission_changes_created_date", columnList = "created_date")
+        }
+)
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PermissionChange {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private UUID itemId;
+    @Column(nullable = false)
+    private UUID userId;
+    // database time, the nodes' clocks are never compared
+    @Column(nullable = false)
+    private Instant createdDate;
+}
@@ -0,0 +1,58 @@
+package com.example.mini_drive_storage.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.UuidGenerator;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+
+import java.time.Instant;
+import java.util.UUID;
+
+// resumable upload in progress, chunks are written into tempPath by offset
+@Entity
+@Getter
+@Setter
+@Table(name = "upload_sessions")
+@NoArgsConstructor
+@AllArgsConstructor
+@EntityListeners(AuditingEntityListener.class)
+@Builder
+public class UploadSession {
+    @Id
+    @UuidGenerator
+    private UUID id;
+
+    @Column(nullable = false)
+    private String name;
+    private String mimeType;
+
+    @Column(nullable = false)
+    private Long totalSize;
+    @Column(nullable = false)
+    private Long chunkSize;
+    @Column(nullable = false)
+    private Integer chunkCount;
+
+    @Column(nullable = false)
+    private String tempPath;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "parent_id")
+    private Items parent;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "owner_id", nullable = false)
+    private Users owner;
+
+    @Column(nullable = false)
+    private Instant expiresAt;
+    // set by the commit, abort or cleanup that took the session, no chunk or second commit gets in after it
+    private Instant committingAt;
+    // chunk writes in flight, a commit only takes the session when there are none
+    @Column(nullable = false, columnDefinition = "integer default 0")
+    @Builder.Default
+    private int activeWrites = 0;
+    @CreatedDate
+    private Instant createdDate;
+}
@@ -0,0 +1,32 @@
+package com.example.mini_drive_storage.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.UuidGenerator;
+
+import java.util.UUID;
+
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(
+        name = "upload_session_chunks",
+        uniqueConstraints = {
+                @UniqueConstraint(columnNames = {"session_id", "chunk_index"})
+        }
+)
+@Builder
+public class UploadSessionChunk {
+    @Id
+    @UuidGenerator
+    private UUID id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "session_id", nullable = false)
+    private UploadSession session;
+
+    @Column(name = "chunk_index", nullable = false)
+    private Integer chunkIndex;
+}
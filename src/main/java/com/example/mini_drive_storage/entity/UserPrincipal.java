@@ -14,6 +14,11 @@ public class UserPrincipal implements UserDetails {
         this.users = users;
     }
 
+    // loaded once by JwtFilter, the rest of the request reads it from here
+    public Users getUser() {
+        return users;
+    }
+
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
         return Collections.singleton(new SimpleGrantedAuthority("USER"));
@@ -0,0 +1,39 @@
+package com.example.mini_drive_storage.enums;
+
+import com.example.mini_drive_storage.exception.InvalidRequestException;
+
+// formats of folder exports, named by their file extension in requests
+public enum ArchiveFormat {
+    ZIP("zip", "application/zip"),
+    TAR("tar", "application/x-tar"),
+    TAR_ZST("tar.zst", "application/zstd");
+
+    private final String extension;
+    private final String contentType;
+
+    ArchiveFormat(String extension, String contentType) {
+        this.extension = extension;
+        this.contentType = contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    // zip when nothing is asked for
+    public static ArchiveFormat of(String extension) {
+        if (extension == null || extension.isBlank()) {
+            return ZIP;
+        }
+        for (ArchiveFormat format : values()) {
+            if (format.extension.equalsIgnoreCase(extension.trim())) {
+                return format;
+            }
+        }
+        throw new InvalidRequestException("Unsupported archive format " + extension);
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.mini_drive_storage.exception;
+
+public class TooManyRequestsException extends BusinessException {
+    public TooManyRequestsException(String message) {
+        super(message);
+    }
+}
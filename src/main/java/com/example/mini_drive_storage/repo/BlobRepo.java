@@ -0,0 +1,50 @@
+package com.example.mini_drive_storage.repo;
+
+import com.example.mini_drive_storage.entity.Blob;
+import jakarta.transaction.Transactional;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface BlobRepo extends JpaRepository<Blob, String> {
+    List<Blob> findByHashGreaterThanOrderByHash(String hash, Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("update Blob b set b.refCount = b.refCount + 1 where b.hash = :hash")
+    int incrementRefCount(@Param("hash") String hash);
+
+    @Transactional
+    @Modifying
+    @Query("update Blob b set b.refCount = b.refCount - 1 where b.hash = :hash")
+    int decrementRefCount(@Param("hash") String hash);
+
+    @Transactional
+    @Modifying
+    @Query(
+            value = """
+                    INSERT INTO blobs (hash, size, stored_size, path, ref_count, created_date)
+                    VALUES (:hash, :size, :storedSize, :path, 1, now())
+                    ON CONFLICT (hash) DO UPDATE SET ref_count = blobs.ref_count + 1
+                    """,
+            nativeQuery = true
+    )
+    void insertOrIncrement(@Param("hash") String hash, @Param("size") long size,
+                           @Param("storedSize") long storedSize, @Param("path") String path);
+
+    // serializes writing and deleting the object of one content hash, held until the
+    // surrounding transaction ends
+    @Query(value = "SELECT 1 FROM (SELECT pg_advisory_xact_lock(hashtextextended(:hash, 0))) l", nativeQuery = true)
+    int lockHash(@Param("hash") String hash);
+
+    @Transactional
+    @Modifying
+    @Query("delete from Blob b where b.hash = :hash and b.refCount <= 0")
+    int deleteIfUnreferenced(@Param("hash") String hash);
+}
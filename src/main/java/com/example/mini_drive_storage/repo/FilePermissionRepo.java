@@ -1,10 +1,14 @@
 package com.example.mini_drive_storage.repo;
 
+import com.example.mini_drive_storage.dto.EffectiveLevel;
 import com.example.mini_drive_storage.entity.FilePermission;
 import com.example.mini_drive_storage.entity.Items;
 import com.example.mini_drive_storage.entity.Users;
 import com.example.mini_drive_storage.enums.PermissionLevel;
+import jakarta.transaction.Transactional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.Arrays;
 import java.util.List;
@@ -22,7 +26,87 @@ public interface FilePermissionRepo extends JpaRepository<FilePermission, UUID>
 
     Optional<FilePermission> findByItemAndSharedToUser(Items item, Users user);
 
-    List<FilePermission> findBySharedToUser(Users user);
+    // share roots only, what is under a shared folder is reached through it
+    List<FilePermission> findBySharedToUserAndInheritedFalse(Users user);
+
+    // level of a user on an item, resolved on the item and every folder above it in one query:
+    // owning any of them gives EDIT, otherwise the highest level shared on any of them. null when none.
+    // inherited rows of the copy-down model only repeat their share root, so they are not read.
+    // the chain walked comes back with it, the decision cache drops entries by it
+    @Query(
+            value = """
+                    WITH RECURSIVE ancestors AS (
+                        SELECT i.id, i.parent_id, i.owner_id FROM items i WHERE i.id = :itemId
+                        UNION ALL
+                        SELECT p.id, p.parent_id, p.owner_id
+                        FROM items p
+                        JOIN ancestors a ON p.id = a.parent_id
+                    )
+                    SELECT (
+                        SELECT level FROM (
+                            SELECT 'EDIT' AS level FROM ancestors a WHERE a.owner_id = :userId
+                            UNION ALL
+                            SELECT fp.permission_level
+                            FROM file_permission fp
+                            JOIN ancestors a ON fp.item_id = a.id
+                            WHERE fp.user_id = :userId AND fp.inherited = false
+                        ) levels
+                        ORDER BY CASE level WHEN 'EDIT' THEN 0 ELSE 1 END
+                        LIMIT 1
+                    ) AS level,
+                    (SELECT string_agg(a.id::text, ',') FROM ancestors a) AS ancestors
+                    """,
+            nativeQuery = true
+    )
+    EffectiveLevel findEffectiveLevel(@Param("userId") UUID userId, @Param("itemId") UUID itemId);
+
+    // version of the shared-with-me list: changes whenever a share row is added, removed or its
+    // item saved, without loading the rows (order independent, so no sort either)
+    @Query(
+            value = """
+                    SELECT COUNT(*) || ':' || COALESCE(SUM(hashtextextended(
+                        fp.id::text || fp.permission_level || fp.inherited::text || COALESCE(i.updated_date::text, ''), 0)), 0)
+                    FROM file_permission fp
+                    JOIN items i ON i.id = fp.item_id
+                    WHERE fp.user_id = :userId AND fp.inherited = false
+                    """,
+            nativeQuery = true
+    )
+    String sharedItemsVersion(@Param("userId") UUID userId);
+
+    // shares an item in one round trip: the row of the shared item is written or its level
+    // replaced, what is under it is resolved through it. returns the number of rows written
+    @Transactional
+    @Query(
+            value = """
+                    WITH shared AS (
+                        INSERT INTO file_permission (id, item_id, user_id, permission_level, inherited, created_date)
+                        VALUES (gen_random_uuid(), :itemId, :userId, :level, false, now())
+                        ON CONFLICT (item_id, user_id) DO UPDATE SET
+                            permission_level = EXCLUDED.permission_level,
+                            inherited = false
+                        RETURNING id
+                    )
+                    SELECT COUNT(*) FROM shared
+                    """,
+            nativeQuery = true
+    )
+    int share(@Param("itemId") UUID itemId, @Param("userId") UUID userId, @Param("level") String level);
+
+    // a batch of the inherited rows left by the copy-down model, nothing reads them anymore
+    @Transactional
+    @Query(
+            value = """
+                    WITH removed AS (
+                        DELETE FROM file_permission
+                        WHERE id IN (SELECT fp.id FROM file_permission fp WHERE fp.inherited = true LIMIT :limit)
+                        RETURNING id
+                    )
+                    SELECT COUNT(*) FROM removed
+                    """,
+            nativeQuery = true
+    )
+    int deleteInherited(@Param("limit") int limit);
 
     void deleteByItem(Items item);
 
@@ -0,0 +1,209 @@
+package com.example.mini_drive_storage.repo;
+
+import com.example.mini_drive_storage.entity.FolderZipArchive;
+import jakarta.persistence.LockModeType;
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+// every state change of a build is one statement guarded by claimed_by, so a node that lost
+// its claim (stale heartbeat, reclaimed elsewhere) can't overwrite the new owner
+@Repository
+public interface FolderZipArchiveRepo extends JpaRepository<FolderZipArchive, String> {
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<FolderZipArchive> findWithLockByFingerprint(String fingerprint);
+
+    long countByStatus(String status);
+
+    // a failed build is tried again when someone asks for it
+    @Transactional
+    @Modifying
+    @Query(
+            value = """
+                    INSERT INTO folder_zip_archives (fingerprint, folder_id, format, status, entries_done, entries_total,
+                        bytes_done, bytes_total, attempts, created_date, last_accessed_at)
+                    VALUES (:fingerprint, :folderId, :format, 'PENDING', 0, 0, 0, 0, 0, now(), now())
+                    ON CONFLICT (fingerprint) DO UPDATE SET
+                        last_accessed_at = now(),
+                        status = CASE WHEN folder_zip_archives.status IN ('READY', 'FAILED') THEN 'PENDING'
+                                      ELSE folder_zip_archives.status END,
+                        attempts = CASE WHEN folder_zip_archives.status IN ('READY', 'FAILED') THEN 0
+                                        ELSE folder_zip_archives.attempts END
+                    """,
+            nativeQuery = true
+    )
+    void request(@Param("fingerprint") String fingerprint, @Param("folderId") UUID folderId,
+                 @Param("format") String format);
+
+    @Transactional
+    @Modifying
+    @Query("update FolderZipArchive a set a.lastAccessedAt = :now where a.fingerprint = :fingerprint")
+    int touch(@Param("fingerprint") String fingerprint, @Param("now") Instant now);
+
+    // oldest wanted archive that nobody builds, or whose builder stopped heartbeating.
+    // SKIP LOCKED lets every node claim at the same time without waiting on each other
+    @Transactional
+    @Query(
+            value = """
+                    WITH claimed AS (
+                        UPDATE folder_zip_archives a
+                        SET status = 'BUILDING', claimed_by = :node, heartbeat_at = now(), attempts = a.attempts + 1,
+                            entries_done = 0, bytes_done = 0
+                        WHERE a.fingerprint = (
+                            SELECT c.fingerprint FROM folder_zip_archives c
+                            WHERE (c.status = 'PENDING' OR (c.status = 'BUILDING' AND c.heartbeat_at < :staleBefore))
+                            AND c.attempts < :maxAttempts
+                            AND EXISTS (SELECT 1 FROM folder_zip_jobs j WHERE j.fingerprint = c.fingerprint AND j.status = 'PENDING')
+                            ORDER BY c.created_date
+                            LIMIT 1
+                            FOR UPDATE SKIP LOCKED
+                        )
+                        RETURNING a.fingerprint
+                    )
+                    SELECT fingerprint FROM claimed
+                    """,
+            nativeQuery = true
+    )
+    List<String> claimNext(@Param("node") String node, @Param("staleBefore") Instant staleBefore,
+                           @Param("maxAttempts") int maxAttempts);
+
+    // heartbeat of a running build, 0 rows means the claim was lost
+    @Transactional
+    @Modifying
+    @Query("""
+            update FolderZipArchive a
+            set a.entriesDone = :entriesDone, a.entriesTotal = :entriesTotal,
+                a.bytesDone = :bytesDone, a.bytesTotal = :bytesTotal, a.heartbeatAt = :now
+            where a.fingerprint = :fingerprint and a.claimedBy = :node and a.status = 'BUILDING'
+            """)
+    int heartbeat(@Param("fingerprint") String fingerprint, @Param("node") String node,
+                  @Param("entriesDone") int entriesDone, @Param("entriesTotal") int entriesTotal,
+                  @Param("bytesDone") long bytesDone, @Param("bytesTotal") long bytesTotal,
+                  @Param("now") Instant now);
+
+    // the archive and every job waiting for it become READY together
+    @Transactional
+    @Modifying
+    @Query(
+            value = """
+                    WITH done AS (
+                        UPDATE folder_zip_archives
+                        SET status = 'READY', archive_key = :archiveKey, size = :size, claimed_by = NULL,
+                            entries_done = :entriesTotal, entries_total = :entriesTotal,
+                            bytes_done = :bytesTotal, bytes_total = :bytesTotal, last_accessed_at = now()
+                        WHERE fingerprint = :fingerprint AND claimed_by = :node AND status = 'BUILDING'
+                        RETURNING fingerprint
+                    )
+                    UPDATE folder_zip_jobs j
+                    SET status = 'READY', finished_at = now(), expires_at = :expiresAt
+                    FROM done
+                    WHERE j.fingerprint = done.fingerprint AND j.status = 'PENDING'
+                    """,
+            nativeQuery = true
+    )
+    int complete(@Param("fingerprint") String fingerprint, @Param("node") String node,
+                 @Param("archiveKey") String archiveKey, @Param("size") long size,
+                 @Param("entriesTotal") int entriesTotal, @Param("bytesTotal") long bytesTotal,
+                 @Param("expiresAt") Instant expiresAt);
+
+    @Transactional
+    @Modifying
+    @Query(
+            value = """
+                    WITH failed AS (
+                        UPDATE folder_zip_archives
+                        SET status = 'FAILED', claimed_by = NULL
+                        WHERE fingerprint = :fingerprint AND claimed_by = :node AND status = 'BUILDING'
+                        RETURNING fingerprint
+                    )
+                    UPDATE folder_zip_jobs j
+                    SET status = 'FAILED', finished_at = now(), expires_at = :expiresAt
+                    FROM failed
+                    WHERE j.fingerprint = failed.fingerprint AND j.status = 'PENDING'
+                    """,
+            nativeQuery = true
+    )
+    int fail(@Param("fingerprint") String fingerprint, @Param("node") String node,
+             @Param("expiresAt") Instant expiresAt);
+
+    // a cancelled build: dropped when no job wants it anymore, otherwise queued again
+    @Transactional
+    @Modifying
+    @Query(
+            value = """
+                    DELETE FROM folder_zip_archives a
+                    WHERE a.fingerprint = :fingerprint AND a.claimed_by = :node AND a.status = 'BUILDING'
+                    AND NOT EXISTS (SELECT 1 FROM folder_zip_jobs j WHERE j.fingerprint = a.fingerprint AND j.status = 'PENDING')
+                    """,
+            nativeQuery = true
+    )
+    int abandon(@Param("fingerprint") String fingerprint, @Param("node") String node);
+
+    @Transactional
+    @Modifying
+    @Query("""
+            update FolderZipArchive a set a.status = 'PENDING', a.claimedBy = null
+            where a.fingerprint = :fingerprint and a.claimedBy = :node and a.status = 'BUILDING'
+            """)
+    int release(@Param("fingerprint") String fingerprint, @Param("node") String node);
+
+    // builds that crashed too often, and their jobs, are given up
+    @Transactional
+    @Modifying
+    @Query(
+            value = """
+                    WITH failed AS (
+                        UPDATE folder_zip_archives
+                        SET status = 'FAILED', claimed_by = NULL
+                        WHERE status = 'BUILDING' AND heartbeat_at < :staleBefore AND attempts >= :maxAttempts
+                        RETURNING fingerprint
+                    )
+                    UPDATE folder_zip_jobs j
+                    SET status = 'FAILED', finished_at = now(), expires_at = :expiresAt
+                    FROM failed
+                    WHERE j.fingerprint = failed.fingerprint AND j.status = 'PENDING'
+                    """,
+            nativeQuery = true
+    )
+    int failAbandoned(@Param("staleBefore") Instant staleBefore, @Param("maxAttempts") int maxAttempts,
+                      @Param("expiresAt") Instant expiresAt);
+
+    // queued builds whose jobs were all cancelled before any node took them
+    @Transactional
+    @Modifying
+    @Query(
+            value = """
+                    DELETE FROM folder_zip_archives a
+                    WHERE a.status IN ('PENDING', 'FAILED')
+                    AND NOT EXISTS (SELECT 1 FROM folder_zip_jobs j WHERE j.fingerprint = a.fingerprint AND j.status = 'PENDING')
+                    """,
+            nativeQuery = true
+    )
+    int deleteUnwanted();
+
+    @Query("select coalesce(sum(a.size), 0) from FolderZipArchive a where a.status = 'READY'")
+    long totalReadyBytes();
+
+    // READY archives no downloadable job points to, least recently requested first
+    @Query(
+            value = """
+                    SELECT a.* FROM folder_zip_archives a
+                    WHERE a.status = 'READY'
+                    AND NOT EXISTS (SELECT 1 FROM folder_zip_jobs j WHERE j.fingerprint = a.fingerprint AND j.status = 'READY')
+                    ORDER BY a.last_accessed_at
+                    LIMIT :limit
+                    FOR UPDATE SKIP LOCKED
+                    """,
+            nativeQuery = true
+    )
+    List<FolderZipArchive> findEvictable(@Param("limit") int limit);
+}
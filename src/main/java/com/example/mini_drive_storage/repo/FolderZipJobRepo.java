@@ -0,0 +1,41 @@
+package com.example.mini_drive_storage.repo;
+
+import com.example.mini_drive_storage.entity.FolderZipJob;
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.UUID;
+
+@Repository
+public interface FolderZipJobRepo extends JpaRepository<FolderZipJob, UUID> {
+    long countByOwner_IdAndStatus(UUID ownerId, String status);
+
+    long countByFingerprintAndStatus(String fingerprint, String status);
+
+    // waiting jobs follow the folder to its current content, done at once when that is built already
+    @Transactional
+    @Modifying
+    @Query(
+            value = """
+                    UPDATE folder_zip_jobs j
+                    SET fingerprint = :to,
+                        status = CASE WHEN a.status = 'READY' THEN 'READY' ELSE j.status END,
+                        finished_at = CASE WHEN a.status = 'READY' THEN now() ELSE j.finished_at END,
+                        expires_at = CASE WHEN a.status = 'READY' THEN :expiresAt ELSE j.expires_at END
+                    FROM folder_zip_archives a
+                    WHERE a.fingerprint = :to AND j.fingerprint = :from AND j.status = 'PENDING'
+                    """,
+            nativeQuery = true
+    )
+    int repoint(@Param("from") String from, @Param("to") String to, @Param("expiresAt") Instant expiresAt);
+
+    @Transactional
+    @Modifying
+    @Query("delete from FolderZipJob j where j.expiresAt < :now")
+    int deleteExpired(@Param("now") Instant now);
+}
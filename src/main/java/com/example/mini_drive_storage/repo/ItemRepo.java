@@ -1,14 +1,18 @@
 package com.example.mini_drive_storage.repo;
 
+import com.example.mini_drive_storage.dto.SubtreeItem;
 import com.example.mini_drive_storage.entity.Items;
 import com.example.mini_drive_storage.entity.Users;
 import com.example.mini_drive_storage.enums.ItemType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
@@ -20,26 +24,120 @@ public interface ItemRepo extends JpaRepository<Items, UUID> {
 
     List<Items> findByParent(Items folder);
 
+    // every live descendant of a folder in one round trip, parents always come before their children.
+    // a deleted folder hides its whole subtree
     @Query(
             value = """
-                    SELECT DISTINCT i.*
-                    FROM items i
-                    LEFT JOIN file_permission fp ON fp.item_id = i.id
-                    WHERE
-                    (i.owner_id = :userId OR fp.user_id = :userId)
-                    AND (:parentId IS NULL OR i.parent_id = :parentId)
-                    AND (:q IS NULL OR i.name ILIKE CONCAT('%', :q, '%'))
-                    AND (
-                        :mimeType IS NULL
-                        OR i.type = :itemType
-                        OR i.mime_type = :mimeType
+                    WITH RECURSIVE tree AS (
+                        SELECT i.id, i.parent_id, i.name, i.type, i.path, i.size, i.mime_type, i.updated_date, 1 AS depth
+                        FROM items i
+                        WHERE i.parent_id = :folderId AND i.deleted_at IS NULL
+                        UNION ALL
+                        SELECT c.id, c.parent_id, c.name, c.type, c.path, c.size, c.mime_type, c.updated_date, t.depth + 1
+                        FROM items c
+                        JOIN tree t ON c.parent_id = t.id
+                        WHERE t.type = 'FOLDER' AND c.deleted_at IS NULL
                     )
-                    AND (:fromSize IS NULL OR i.size >= :fromSize)
-                    AND (:toSize IS NULL OR i.size <= :toSize)
-                    AND i.deleted_at IS NULL
+                    SELECT id, parent_id AS parentId, name, type, path, size, mime_type AS mimeType, updated_date AS updatedDate
+                    FROM tree
+                    ORDER BY depth, name, id
                     """,
             nativeQuery = true
     )
+    List<SubtreeItem> findLiveSubtree(@Param("folderId") UUID folderId);
+
+    // the selected items and everything under the selected folders, in one round trip.
+    // an item also reached through a selected folder is kept once, at its deepest (outermost) path,
+    // so rows whose parent is not in the result are the top of the selection
+    @Query(
+            value = """
+                    WITH RECURSIVE tree AS (
+                        SELECT i.id, i.parent_id, i.name, i.type, i.path, i.size, i.mime_type, i.updated_date, 0 AS depth
+                        FROM items i
+                        WHERE i.id IN (:ids) AND i.deleted_at IS NULL
+                        UNION ALL
+                        SELECT c.id, c.parent_id, c.name, c.type, c.path, c.size, c.mime_type, c.updated_date, t.depth + 1
+                        FROM items c
+                        JOIN tree t ON c.parent_id = t.id
+                        WHERE t.type = 'FOLDER' AND c.deleted_at IS NULL
+                    ),
+                    deduped AS (
+                        SELECT DISTINCT ON (id) * FROM tree ORDER BY id, depth DESC
+                    )
+                    SELECT id, parent_id AS parentId, name, type, path, size, mime_type AS mimeType, updated_date AS updatedDate
+                    FROM deduped
+                    ORDER BY depth, name, id
+                    """,
+            nativeQuery = true
+    )
+    List<SubtreeItem> findLiveSelection(@Param("ids") Collection<UUID> ids);
+
+    // how many of the items the user may view, checks a whole selection at once.
+    // like FilePermissionRepo.findEffectiveLevel, each item is resolved on itself and its folders
+    @Query(
+            value = """
+                    WITH RECURSIVE chain AS (
+                        SELECT i.id AS item_id, i.id, i.parent_id, i.owner_id
+                        FROM items i
+                        WHERE i.id IN (:ids) AND i.deleted_at IS NULL
+                        UNION ALL
+                        SELECT c.item_id, p.id, p.parent_id, p.owner_id
+                        FROM items p
+                        JOIN chain c ON p.id = c.parent_id
+                    )
+                    SELECT COUNT(DISTINCT c.item_id)
+                    FROM chain c
+                    WHERE c.owner_id = :userId
+                    OR EXISTS (SELECT 1 FROM file_permission fp
+                               WHERE fp.item_id = c.id AND fp.user_id = :userId AND fp.inherited = false)
+                    """,
+            nativeQuery = true
+    )
+    long countViewable(@Param("userId") UUID userId, @Param("ids") Collection<UUID> ids);
+
+    // what the user can see besides what they own (matched by owner_id, no walk needed): the
+    // subtrees of what was shared with them, and of items others put into the user's folders.
+    // only those roots are walked down, never the user's own tree
+    String SEARCH_VISIBLE = """
+            WITH RECURSIVE reachable AS (
+                SELECT fp.item_id AS id FROM file_permission fp WHERE fp.user_id = :userId AND fp.inherited = false
+                UNION
+                SELECT c.id
+                FROM items c
+                JOIN items p ON p.id = c.parent_id
+                WHERE p.owner_id = :userId AND c.owner_id <> :userId
+                UNION
+                SELECT c.id FROM items c JOIN reachable r ON c.parent_id = r.id
+            )
+            """;
+
+    String SEARCH_FILTERS = """
+            (:q IS NULL OR i.name ILIKE CONCAT('%', :q, '%'))
+            AND (
+                :mimeType IS NULL
+                OR i.type = :itemType
+                OR i.mime_type = :mimeType
+            )
+            AND (:fromSize IS NULL OR i.size >= :fromSize)
+            AND (:toSize IS NULL OR i.size <= :toSize)
+            AND i.deleted_at IS NULL
+            """;
+
+    String SEARCH_FROM = """
+            FROM items i
+            WHERE
+            (i.owner_id = :userId OR i.id IN (SELECT r.id FROM reachable r))
+            AND (:parentId IS NULL OR i.parent_id = :parentId)
+            AND\s""" + SEARCH_FILTERS;
+
+    // the children of a folder the user can see are all visible too, so a listing needs
+    // neither the visible set nor file_permission: it is read off idx_items_parent_id
+    String LISTING_FROM = """
+            FROM items i
+            WHERE i.parent_id = :parentId
+            AND\s""" + SEARCH_FILTERS;
+
+    @Query(value = SEARCH_VISIBLE + "SELECT i.* " + SEARCH_FROM, nativeQuery = true)
     List<Items> search(
             @Param("userId") UUID userId,
             @Param("q") String q,
@@ -50,6 +148,17 @@ public interface ItemRepo extends JpaRepository<Items, UUID> {
             @Param("toSize") Long toSize
     );
 
+    // search inside a folder already known to be visible to the caller
+    @Query(value = "SELECT i.* " + LISTING_FROM, nativeQuery = true)
+    List<Items> listChildren(
+            @Param("parentId") UUID parentId,
+            @Param("q") String q,
+            @Param("mimeType") String mimeType,
+            @Param("itemType") String itemType,
+            @Param("fromSize") Long fromSize,
+            @Param("toSize") Long toSize
+    );
+
     @Query("""
             SELECT COUNT(i),COALESCE(SUM(i.size),0)
             FROM Items i
@@ -68,4 +177,19 @@ public interface ItemRepo extends JpaRepository<Items, UUID> {
     List<Items> findExpiredRootItems(Instant expiredTime);
 
     boolean existsByIdAndOwnerId(UUID id, UUID id1);
+
+    // files written before the blob store, keyset paging by id
+    @Query("""
+            SELECT i from Items i
+            where i.type = com.example.mini_drive_storage.enums.ItemType.FILE
+            and i.contentHash is null
+            and i.path is not null
+            and i.id > :afterId
+            order by i.id
+            """)
+    List<Items> findLegacyFilesAfter(@Param("afterId") UUID afterId, Pageable pageable);
+
+    @Modifying
+    @Query("update Items i set i.path = :path where i.contentHash = :hash")
+    int updatePathByContentHash(@Param("hash") String hash, @Param("path") String path);
 }
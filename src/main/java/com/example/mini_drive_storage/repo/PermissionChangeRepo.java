@@ -0,0 +1,37 @@
+package com.example.mini_drive_storage.repo;
+
+import com.example.mini_drive_storage.entity.PermissionChange;
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface PermissionChangeRepo extends JpaRepository<PermissionChange, Long> {
+    @Transactional
+    @Modifying
+    @Query(
+            value = "INSERT INTO permission_changes (item_id, user_id, created_date) VALUES (:itemId, :userId, now())",
+            nativeQuery = true
+    )
+    void record(@Param("itemId") UUID itemId, @Param("userId") UUID userId);
+
+    @Query(
+            value = "SELECT * FROM permission_changes WHERE created_date > now() - make_interval(secs => :seconds)",
+            nativeQuery = true
+    )
+    List<PermissionChange> findRecent(@Param("seconds") long seconds);
+
+    @Transactional
+    @Modifying
+    @Query(
+            value = "DELETE FROM permission_changes WHERE created_date < now() - make_interval(secs => :seconds)",
+            nativeQuery = true
+    )
+    int deleteOlderThan(@Param("seconds") long seconds);
+}
@@ -0,0 +1,32 @@
+package com.example.mini_drive_storage.repo;
+
+import com.example.mini_drive_storage.entity.UploadSession;
+import com.example.mini_drive_storage.entity.UploadSessionChunk;
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface UploadSessionChunkRepo extends JpaRepository<UploadSessionChunk, UUID> {
+    @Query("""
+            SELECT c.chunkIndex FROM UploadSessionChunk c
+            where c.session.id = :sessionId
+            order by c.chunkIndex
+            """)
+    List<Integer> findChunkIndexes(@Param("sessionId") UUID sessionId);
+
+    long countBySessionId(UUID sessionId);
+
+    boolean existsBySessionIdAndChunkIndex(UUID sessionId, Integer chunkIndex);
+
+    @Transactional
+    @Modifying
+    @Query("delete from UploadSessionChunk c where c.session = :session")
+    void deleteBySession(@Param("session") UploadSession session);
+}
@@ -0,0 +1,49 @@
+package com.example.mini_drive_storage.repo;
+
+import com.example.mini_drive_storage.entity.UploadSession;
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface UploadSessionRepo extends JpaRepository<UploadSession, UUID> {
+    List<UploadSession> findByExpiresAtBefore(Instant time);
+
+    // only one of concurrent commits gets 1, and none while a chunk is still being written
+    @Transactional
+    @Modifying
+    @Query("update UploadSession s set s.committingAt = :now where s.id = :id and s.committingAt is null and s.activeWrites = 0")
+    int markCommitting(@Param("id") UUID id, @Param("now") Instant now);
+
+    // abort and cleanup take the session like a commit, one stuck since stuckBefore is given up
+    @Transactional
+    @Modifying
+    @Query("""
+            update UploadSession s set s.committingAt = :now
+            where s.id = :id and (s.committingAt is null or s.committingAt < :stuckBefore)
+            """)
+    int markDeleting(@Param("id") UUID id, @Param("now") Instant now, @Param("stuckBefore") Instant stuckBefore);
+
+    // a chunk write only starts while no commit took the session
+    @Transactional
+    @Modifying
+    @Query("update UploadSession s set s.activeWrites = s.activeWrites + 1 where s.id = :id and s.committingAt is null")
+    int beginWrite(@Param("id") UUID id);
+
+    @Transactional
+    @Modifying
+    @Query("update UploadSession s set s.activeWrites = s.activeWrites - 1 where s.id = :id")
+    int endWrite(@Param("id") UUID id);
+
+    @Transactional
+    @Modifying
+    @Query("update UploadSession s set s.committingAt = null where s.id = :id")
+    int clearCommitting(@Param("id") UUID id);
+}
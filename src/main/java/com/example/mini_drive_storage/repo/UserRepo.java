@@ -1,7 +1,9 @@
 package com.example.mini_drive_storage.repo;
 
 import com.example.mini_drive_storage.entity.Users;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
@@ -10,4 +12,7 @@ import java.util.UUID;
 public interface UserRepo extends JpaRepository<Users, UUID> {
 
     Optional<Users> findByEmail(String email);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<Users> findWithLockById(UUID id);
 }
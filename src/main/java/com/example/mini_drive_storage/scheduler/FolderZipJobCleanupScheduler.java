@@ -0,0 +1,18 @@
+package com.example.mini_drive_storage.scheduler;
+
+import com.example.mini_drive_storage.service.FolderZipJobService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+@RequiredArgsConstructor
+public class FolderZipJobCleanupScheduler {
+    private final FolderZipJobService folderZipJobService;
+
+    // finished zip jobs are kept for the ttl so the client can download, their archive stays in the zip cache
+    @Scheduled(fixedDelayString = "${download.zip.cleanup-interval-ms:60000}")
+    public void cleanupExpiredJobs() {
+        folderZipJobService.evictExpired();
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.mini_drive_storage.scheduler;
+
+import com.example.mini_drive_storage.service.FolderZipJobService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+@RequiredArgsConstructor
+public class FolderZipWorkerScheduler {
+    private final FolderZipJobService folderZipJobService;
+
+    // every node heartbeats its builds, claims queued ones and feeds its open progress streams
+    @Scheduled(fixedDelayString = "${download.zip.poll-interval-ms:1000}")
+    public void work() {
+        folderZipJobService.work();
+        folderZipJobService.publishProgress();
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.mini_drive_storage.scheduler;
+
+import com.example.mini_drive_storage.repo.PermissionChangeRepo;
+import com.example.mini_drive_storage.service.PermissionDecisionCache;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+@RequiredArgsConstructor
+public class PermissionCacheScheduler {
+    private final PermissionDecisionCache decisionCache;
+    private final PermissionChangeRepo permissionChangeRepo;
+
+    @Value("${permission.cache.changes-retention-seconds:3600}")
+    private long retentionSeconds;
+
+    // shares changed on other nodes, this bounds how long their cached decisions can be stale
+    @Scheduled(fixedDelayString = "${permission.cache.poll-interval-ms:1000}")
+    public void pollChanges() {
+        decisionCache.pollChanges();
+    }
+
+    // rows only matter for the poll window, any node may drop the older ones
+    @Scheduled(fixedDelayString = "${permission.cache.changes-cleanup-interval-ms:600000}")
+    public void cleanupChanges() {
+        permissionChangeRepo.deleteOlderThan(retentionSeconds);
+    }
+}
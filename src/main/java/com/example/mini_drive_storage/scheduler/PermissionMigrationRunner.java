@@ -0,0 +1,36 @@
+package com.example.mini_drive_storage.scheduler;
+
+import com.example.mini_drive_storage.repo.FilePermissionRepo;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+// One-off cleanup of the copy-down permission model, start the app with
+// --permission.migration.enabled=true to run it. Folder shares are resolved through the
+// shared folder now, so the inherited rows copied onto every descendant are dropped, one
+// batch per transaction. Safe to rerun after an interruption.
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "permission.migration.enabled", havingValue = "true")
+public class PermissionMigrationRunner implements ApplicationRunner {
+    private final FilePermissionRepo filePermissionRepo;
+
+    @Value("${permission.migration.batch-size:1000}")
+    private int batchSize;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long removed = 0;
+        int batch;
+        do {
+            batch = filePermissionRepo.deleteInherited(batchSize);
+            removed += batch;
+        } while (batch == batchSize);
+        log.info("Removed {} inherited permissions", removed);
+    }
+}
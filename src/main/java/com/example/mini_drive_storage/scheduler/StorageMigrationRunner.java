@@ -0,0 +1,69 @@
+package com.example.mini_drive_storage.scheduler;
+
+import com.example.mini_drive_storage.service.StorageMigrationService;
+import com.example.mini_drive_storage.storage.StorageBackend;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.UUID;
+
+// One-off migration to the sharded storage layout, start the app with
+// --storage.migration.enabled=true to run it. Safe to rerun after an interruption.
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "storage.migration.enabled", havingValue = "true")
+public class StorageMigrationRunner implements ApplicationRunner {
+    private final StorageMigrationService storageMigrationService;
+    private final StorageBackend storageBackend;
+
+    @Value("${storage.migration.batch-size:500}")
+    private int batchSize;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        int relocated = 0;
+        String afterHash = "";
+        while (true) {
+            StorageMigrationService.Batch batch = storageMigrationService.relocateBlobs(afterHash, batchSize);
+            if (batch.lastKey() == null) {
+                break;
+            }
+            deleteObsoleteFiles(batch);
+            relocated += batch.migrated();
+            afterHash = batch.lastKey();
+        }
+        log.info("Relocated {} blobs to the sharded layout", relocated);
+
+        int imported = 0;
+        UUID afterId = StorageMigrationService.FIRST_ITEM_ID;
+        while (true) {
+            StorageMigrationService.Batch batch = storageMigrationService.importLegacyFiles(afterId, batchSize);
+            if (batch.lastKey() == null) {
+                break;
+            }
+            deleteObsoleteFiles(batch);
+            imported += batch.migrated();
+            afterId = UUID.fromString(batch.lastKey());
+            log.info("Imported {} legacy files so far", imported);
+        }
+        log.info("Imported {} legacy files into the blob store", imported);
+    }
+
+    // only after the batch committed, so a crash never leaves rows pointing at deleted files
+    private void deleteObsoleteFiles(StorageMigrationService.Batch batch) {
+        for (String key : batch.obsoleteKeys()) {
+            try {
+                storageBackend.delete(key);
+            } catch (IOException e) {
+                log.error("Failed to delete file " + e.getMessage());
+            }
+        }
+    }
+}
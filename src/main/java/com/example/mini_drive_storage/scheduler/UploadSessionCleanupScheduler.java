@@ -0,0 +1,29 @@
+package com.example.mini_drive_storage.scheduler;
+
+import com.example.mini_drive_storage.entity.UploadSession;
+import com.example.mini_drive_storage.service.UploadSessionService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class UploadSessionCleanupScheduler {
+    private final UploadSessionService uploadSessionService;
+
+    // abandoned resumable uploads keep a preallocated file on disk, remove them after the ttl
+    @Scheduled(cron = "${upload.session.cleanup.cron:0 0 * * * *}")
+    public void cleanupExpiredSessions() {
+        List<UploadSession> expiredSessions = uploadSessionService.findExpiredSessions();
+        log.info("Found {} expired upload sessions to cleanup", expiredSessions.size());
+        for (UploadSession session : expiredSessions) {
+            if (!uploadSessionService.deleteExpiredSession(session)) {
+                log.info("Upload session {} is being committed, not removed", session.getId());
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.mini_drive_storage.service;
+
+import com.example.mini_drive_storage.entity.Items;
+import com.example.mini_drive_storage.enums.PermissionLevel;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+// What the @PreAuthorize check of a request granted: the item it loaded and the level of the
+// user on it. The service behind the endpoint reads them back instead of asking the database
+// again. Kept as a request attribute, so it ends with the request; outside of one (schedulers,
+// upload workers) nothing is recorded and every lookup misses.
+@Component
+public class AuthorizationContext {
+    private static final String ATTRIBUTE = AuthorizationContext.class.getName();
+
+    private record Authorized(UUID userId, Items item, PermissionLevel level) {
+    }
+
+    // a denied check ends the request, only granted levels are worth keeping
+    public void record(UUID userId, Items item, PermissionLevel level) {
+        Map<UUID, Authorized> authorized = authorized(true);
+        if (authorized != null) {
+            authorized.put(item.getId(), new Authorized(userId, item, level));
+        }
+    }
+
+    public Optional<Items> item(UUID itemId) {
+        Map<UUID, Authorized> authorized = authorized(false);
+        return authorized != null && authorized.containsKey(itemId)
+                ? Optional.of(authorized.get(itemId).item())
+                : Optional.empty();
+    }
+
+    // empty when this request didn't grant the user anything on the item
+    public Optional<PermissionLevel> level(UUID userId, UUID itemId) {
+        Map<UUID, Authorized> authorized = authorized(false);
+        Authorized entry = authorized != null ? authorized.get(itemId) : null;
+        return entry != null && entry.userId().equals(userId) ? Optional.of(entry.level()) : Optional.empty();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<UUID, Authorized> authorized(boolean create) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        Map<UUID, Authorized> authorized =
+                (Map<UUID, Authorized>) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (authorized == null && create) {
+            authorized = new HashMap<>();
+            attributes.setAttribute(ATTRIBUTE, authorized, RequestAttributes.SCOPE_REQUEST);
+        }
+        return authorized;
+    }
+}
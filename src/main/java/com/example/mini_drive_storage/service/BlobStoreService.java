@@ -0,0 +1,299 @@
+package com.example.mini_drive_storage.service;
+
+import com.example.mini_drive_storage.entity.Blob;
+import com.example.mini_drive_storage.repo.BlobRepo;
+import com.example.mini_drive_storage.storage.CompressionPolicy;
+import com.example.mini_drive_storage.storage.ContentCodec;
+import com.example.mini_drive_storage.storage.StorageBackend;
+import jakarta.annotation.PostConstruct;
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+// Content-addressable storage: files with the same SHA-256 share one physical blob.
+// Items.path holds the storage key of the blob, the blob row keeps how many items reference it.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BlobStoreService {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final BlobRepo blobRepo;
+    private final StorageLayout storageLayout;
+    private final StorageBackend storageBackend;
+    private final CompressionPolicy compressionPolicy;
+    private final PlatformTransactionManager transactionManager;
+
+    @PostConstruct
+    public void initStorage() {
+        try {
+            Files.createDirectories(storageLayout.tempDir());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not initialize blob storage", e);
+        }
+    }
+
+    /**
+     * Stores the uploaded file and returns the blob it now references.
+     * The multipart data is read once, hashed while it is copied to a local temp file;
+     * a duplicate then only bumps the reference count and the temp file is dropped.
+     */
+    public Blob store(MultipartFile file) {
+        try {
+            return store(file.getInputStream(), file.getContentType());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read uploaded file", e);
+        }
+    }
+
+    /**
+     * Stores a raw stream in a single pass: the body goes straight to a local temp file
+     * while it is hashed and counted, then the file is handed to the backend.
+     * No database connection is held while the client is sending data.
+     */
+    public Blob store(InputStream content, String mimeType) {
+        Path temp = newTempFile();
+        MessageDigest digest = newDigest();
+        long size;
+        try (InputStream in = new DigestInputStream(content, digest)) {
+            size = Files.copy(in, temp);
+        } catch (IOException e) {
+            deleteQuietly(temp);
+            throw new RuntimeException("Could not upload file", e);
+        }
+        return publish(temp, HexFormat.of().formatHex(digest.digest()), size, mimeType);
+    }
+
+    /**
+     * Takes ownership of a local file that was already assembled (e.g. a committed chunked
+     * upload). It is hashed with one read and then handed to the backend, or deleted if
+     * the same content is already stored.
+     */
+    public Blob adopt(Path file, String mimeType) {
+        String hash;
+        long size;
+        try (InputStream in = Files.newInputStream(file)) {
+            hash = sha256(in);
+            size = Files.size(file);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read uploaded file", e);
+        }
+        return publish(file, hash, size, mimeType);
+    }
+
+    /**
+     * Imports an object stored outside the blob layout (used by the storage migration).
+     * The source is left untouched: it is hard linked or copied when it is on the local disk,
+     * streamed otherwise, so the caller can delete it once the new key is committed.
+     */
+    public Blob importFile(String sourceKey, String mimeType) {
+        String hash;
+        long size;
+        try (InputStream in = storageBackend.get(sourceKey)) {
+            hash = sha256(in);
+            size = storageBackend.size(sourceKey);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read file " + sourceKey, e);
+        }
+        if (blobRepo.incrementRefCount(hash) > 0) {
+            return blobRepo.findById(hash).orElseThrow();
+        }
+
+        Path temp = newTempFile();
+        try {
+            Optional<Path> source = storageBackend.localPath(sourceKey);
+            if (source.isPresent()) {
+                linkOrCopy(source.get(), temp);
+            } else {
+                try (InputStream in = storageBackend.get(sourceKey)) {
+                    Files.copy(in, temp);
+                }
+            }
+        } catch (IOException e) {
+            deleteQuietly(temp);
+            throw new RuntimeException("Could not import file " + sourceKey, e);
+        }
+        return publish(temp, hash, size, mimeType);
+    }
+
+    // a hard link makes the new location visible without copying data
+    public static void linkOrCopy(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // moves a fully written temp file into the store, or drops it if the content is already there
+    private Blob publish(Path temp, String hash, long size, String mimeType) {
+        if (blobRepo.incrementRefCount(hash) > 0) {
+            deleteQuietly(temp);
+            return blobRepo.findById(hash).orElseThrow();
+        }
+
+        String key = storageLayout.blobKey(hash);
+        Path stored = temp;
+        long storedSize = size;
+        try {
+            if (compressionPolicy.shouldCompress(mimeType, size)) {
+                Path compressed = compress(temp);
+                if (Files.size(compressed) < size) {
+                    deleteQuietly(temp);
+                    stored = compressed;
+                    storedSize = Files.size(compressed);
+                    key = ContentCodec.gzipKey(key);
+                } else {
+                    deleteQuietly(compressed);
+                }
+            }
+        } catch (IOException e) {
+            deleteQuietly(temp);
+            deleteQuietly(stored);
+            throw new RuntimeException("Could not upload file", e);
+        }
+
+        String storedKey = key;
+        Path storedFile = stored;
+        long storedBytes = storedSize;
+        // the hash lock is held from the write until the row is committed: the delete of a
+        // released blob with the same content takes it too, so it runs either before the write
+        // or after the row that keeps the object exists
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            blobRepo.lockHash(hash);
+            try {
+                // same content under the same key, so a concurrent writer replacing it is harmless
+                storageBackend.putFile(storedKey, storedFile);
+            } catch (IOException e) {
+                deleteQuietly(storedFile);
+                throw new RuntimeException("Could not upload file", e);
+            }
+            return register(hash, size, storedBytes, storedKey);
+        });
+    }
+
+    private Blob register(String hash, long size, long storedSize, String key) {
+        blobRepo.insertOrIncrement(hash, size, storedSize, key);
+        Blob blob = blobRepo.findById(hash).orElseThrow();
+        if (!blob.getPath().equals(key)) {
+            // a concurrent upload stored the same content with the other encoding first
+            deleteObject(key);
+        }
+        return blob;
+    }
+
+    private Path compress(Path source) throws IOException {
+        Path compressed = newTempFile();
+        try (InputStream in = Files.newInputStream(source);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed), BUFFER_SIZE)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            deleteQuietly(compressed);
+            throw e;
+        }
+        return compressed;
+    }
+
+    /**
+     * Drops one reference to the blob; the stored object is removed with the last one.
+     */
+    @Transactional
+    public void release(String hash) {
+        Blob blob = blobRepo.findById(hash).orElse(null);
+        if (blob == null) {
+            return;
+        }
+        blobRepo.decrementRefCount(hash);
+        // the row stays locked until commit, so a concurrent upload of the same content
+        // waits and then writes a fresh copy instead of taking a reference to this one
+        if (blobRepo.deleteIfUnreferenced(hash) > 0) {
+            deleteAfterCommit(hash, blob.getPath());
+        }
+    }
+
+    // the bytes go only once the row is gone for good: a rolled back delete brings the row
+    // back and it must still point at its object. a new upload of the same content that
+    // registered meanwhile owns the key again, so the object is kept; the hash lock keeps
+    // one that is still between its write and its row waiting, see publish
+    private void deleteAfterCommit(String hash, String key) {
+        TransactionTemplate newTransaction = new TransactionTemplate(transactionManager);
+        newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        Runnable delete = () -> newTransaction.executeWithoutResult(status -> {
+            blobRepo.lockHash(hash);
+            if (blobRepo.existsById(hash)) {
+                return;
+            }
+            deleteObject(key);
+            log.info("Deleted blob " + hash);
+        });
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    delete.run();
+                }
+            });
+        } else {
+            delete.run();
+        }
+    }
+
+    private void deleteObject(String key) {
+        try {
+            storageBackend.delete(key);
+        } catch (IOException e) {
+            log.error("Failed to delete blob " + e.getMessage());
+        }
+    }
+
+    private Path newTempFile() {
+        return storageLayout.tempDir().resolve(UUID.randomUUID() + ".part");
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.error("Failed to delete file " + e.getMessage());
+        }
+    }
+
+    static String sha256(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, length);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.mini_drive_storage.service;
+
+import com.example.mini_drive_storage.dto.SubtreeItem;
+import com.example.mini_drive_storage.entity.FolderZipArchive;
+import com.example.mini_drive_storage.entity.Items;
+import com.example.mini_drive_storage.enums.ArchiveFormat;
+import com.example.mini_drive_storage.repo.FolderZipArchiveRepo;
+import com.example.mini_drive_storage.storage.StorageBackend;
+import jakarta.transaction.Transactional;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+
+// Built folder archives, keyed by a fingerprint of the folder content so any user exporting
+// the same tree gets the same file. The index is the folder_zip_archives table, shared by all
+// nodes. Bounded by download.zip.cache.max-bytes, least recently requested first; archives a
+// job can still download are never evicted.
+@Component
+@Slf4j
+public class FolderZipCache {
+    private static final int EVICTION_BATCH = 100;
+
+    private final FolderZipArchiveRepo archiveRepo;
+    private final StorageBackend storageBackend;
+    private final long maxBytes;
+
+    public FolderZipCache(FolderZipArchiveRepo archiveRepo,
+                          StorageBackend storageBackend,
+                          @Value("${download.zip.cache.max-bytes:10737418240}") long maxBytes) {
+        this.archiveRepo = archiveRepo;
+        this.storageBackend = storageBackend;
+        this.maxBytes = maxBytes;
+    }
+
+    // changes whenever a live item of the tree is added, removed, renamed, moved or rewritten.
+    // zip keeps the fingerprints it had before the other formats
+    public static String fingerprint(Items folder, List<SubtreeItem> items, ArchiveFormat format) {
+        MessageDigest digest = BlobStoreService.newDigest();
+        update(digest, "zip-v1");
+        if (format != ArchiveFormat.ZIP) {
+            update(digest, "format:" + format.getExtension());
+        }
+        update(digest, folder.getId() + ":" + folder.getName());
+        List<SubtreeItem> sorted = new ArrayList<>(items);
+        sorted.sort(Comparator.comparing(SubtreeItem::getId));
+        for (SubtreeItem item : sorted) {
+            update(digest, item.getId() + ":" + item.getParentId() + ":" + item.getName() + ":"
+                    + item.getUpdatedDate() + ":" + item.getSize() + ":" + item.getPath());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+    }
+
+    // candidates stay locked until the rows are gone, so a job can't pick one up meanwhile
+    @Transactional
+    public void evict() {
+        long totalBytes = archiveRepo.totalReadyBytes();
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+        for (FolderZipArchive archive : archiveRepo.findEvictable(EVICTION_BATCH)) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            try {
+                storageBackend.delete(archive.getArchiveKey());
+            } catch (IOException e) {
+                log.error("Failed to delete cached archive " + e.getMessage());
+                continue;
+            }
+            archiveRepo.delete(archive);
+            totalBytes -= archive.getSize() != null ? archive.getSize() : 0;
+        }
+    }
+}
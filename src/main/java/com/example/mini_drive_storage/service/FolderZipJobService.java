@@ -0,0 +1,412 @@
+package com.example.mini_drive_storage.service;
+
+import com.example.mini_drive_storage.dto.SubtreeItem;
+import com.example.mini_drive_storage.entity.FolderDownloadStatus;
+import com.example.mini_drive_storage.entity.FolderZipArchive;
+import com.example.mini_drive_storage.entity.FolderZipJob;
+import com.example.mini_drive_storage.entity.Items;
+import com.example.mini_drive_storage.entity.Users;
+import com.example.mini_drive_storage.enums.ArchiveFormat;
+import com.example.mini_drive_storage.enums.ItemType;
+import com.example.mini_drive_storage.exception.InvalidRequestException;
+import com.example.mini_drive_storage.exception.NotFoundException;
+import com.example.mini_drive_storage.exception.TooManyRequestsException;
+import com.example.mini_drive_storage.repo.FolderZipArchiveRepo;
+import com.example.mini_drive_storage.repo.FolderZipJobRepo;
+import com.example.mini_drive_storage.repo.ItemRepo;
+import com.example.mini_drive_storage.repo.UserRepo;
+import com.example.mini_drive_storage.storage.StorageBackend;
+import com.example.mini_drive_storage.utils.CurrentUserUtils;
+import jakarta.transaction.Transactional;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Folder zip jobs, shared by every node through the folder_zip_jobs / folder_zip_archives tables:
+// any node accepts a request or answers a poll, and every node claims queued builds for its
+// zip executor. Archives go to the storage backend, which has to be shared between nodes.
+// Jobs asking for content that was already exported get the cached archive, jobs asking for
+// content that is being built wait for that one build.
+// Finished jobs are dropped after download.zip.ttl-minutes, their archive stays in the cache.
+@Service
+@Slf4j
+public class FolderZipJobService {
+    private final ItemRepo itemRepo;
+    private final UserRepo userRepo;
+    private final FolderZipJobRepo jobRepo;
+    private final FolderZipArchiveRepo archiveRepo;
+    private final CurrentUserUtils currentUserUtils;
+    private final FolderZipWriter folderZipWriter;
+    private final FolderZipCache folderZipCache;
+    private final FolderZipProgressPublisher progressPublisher;
+    private final StorageBackend storageBackend;
+    private final StorageLayout storageLayout;
+    private final Executor zipExecutor;
+    private final int threads;
+    private final int maxJobsPerUser;
+    private final int queueCapacity;
+    private final Duration ttl;
+    private final Duration staleAfter;
+    private final int maxAttempts;
+    private final String nodeId;
+
+    // builds claimed by this node, by fingerprint
+    private final Map<String, LocalBuild> localBuilds = new ConcurrentHashMap<>();
+    private final AtomicInteger running = new AtomicInteger();
+
+    public FolderZipJobService(ItemRepo itemRepo,
+                               UserRepo userRepo,
+                               FolderZipJobRepo jobRepo,
+                               FolderZipArchiveRepo archiveRepo,
+                               CurrentUserUtils currentUserUtils,
+                               FolderZipWriter folderZipWriter,
+                               FolderZipCache folderZipCache,
+                               FolderZipProgressPublisher progressPublisher,
+                               StorageBackend storageBackend,
+                               StorageLayout storageLayout,
+                               @Qualifier("zipExecutor") Executor zipExecutor,
+                               @Value("${download.zip.threads:2}") int threads,
+                               @Value("${download.zip.max-jobs-per-user:2}") int maxJobsPerUser,
+                               @Value("${download.zip.queue-capacity:20}") int queueCapacity,
+                               @Value("${download.zip.ttl-minutes:60}") long ttlMinutes,
+                               @Value("${download.zip.stale-after-ms:60000}") long staleAfterMillis,
+                               @Value("${download.zip.max-attempts:3}") int maxAttempts,
+                               @Value("${download.zip.node-id:}") String nodeId) {
+        this.itemRepo = itemRepo;
+        this.userRepo = userRepo;
+        this.jobRepo = jobRepo;
+        this.archiveRepo = archiveRepo;
+        this.currentUserUtils = currentUserUtils;
+        this.folderZipWriter = folderZipWriter;
+        this.folderZipCache = folderZipCache;
+        this.progressPublisher = progressPublisher;
+        this.storageBackend = storageBackend;
+        this.storageLayout = storageLayout;
+        this.zipExecutor = zipExecutor;
+        this.threads = threads;
+        this.maxJobsPerUser = maxJobsPerUser;
+        this.queueCapacity = queueCapacity;
+        this.ttl = Duration.ofMinutes(ttlMinutes);
+        this.staleAfter = Duration.ofMillis(staleAfterMillis);
+        this.maxAttempts = maxAttempts;
+        this.nodeId = nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+    }
+
+    // progress of a build running here, pushed to the archive row by every heartbeat
+    private static final class LocalBuild {
+        private volatile int entriesDone;
+        private volatile int entriesTotal;
+        private volatile long bytesDone;
+        private volatile long bytesTotal;
+        private volatile boolean cancelled;
+    }
+
+    @Transactional
+    public UUID submit(UUID folderId, ArchiveFormat format) {
+        Items folder = itemRepo.findById(folderId)
+                .orElseThrow(() -> new NotFoundException("Item not found"));
+        if (folder.getType() != ItemType.FOLDER || folder.getDeletedAt() != null) {
+            throw new InvalidRequestException("Item is not folder");
+        }
+        Users currentUser = currentUserUtils.getCurrentUser();
+        String fingerprint = FolderZipCache.fingerprint(folder, itemRepo.findLiveSubtree(folderId), format);
+
+        // requests of one user are serialized on their row, so parallel ones can't both pass the limit
+        userRepo.findWithLockById(currentUser.getId());
+        FolderZipJob job = FolderZipJob.builder()
+                .owner(currentUser)
+                .folderId(folderId)
+                .fingerprint(fingerprint)
+                .build();
+
+        // the locked row can't be evicted before this job pins it
+        Optional<FolderZipArchive> archive = archiveRepo.findWithLockByFingerprint(fingerprint);
+        if (archive.isPresent() && isServable(archive.get())) {
+            archiveRepo.touch(fingerprint, Instant.now());
+            job.setStatus("READY");
+            job.setFinishedAt(Instant.now());
+            job.setExpiresAt(Instant.now().plus(ttl));
+            return jobRepo.save(job).getId();
+        }
+
+        if (jobRepo.countByOwner_IdAndStatus(currentUser.getId(), "PENDING") >= maxJobsPerUser) {
+            throw new TooManyRequestsException("Too many folder downloads in progress, try again later");
+        }
+        boolean queued = archive.isPresent()
+                && ("PENDING".equals(archive.get().getStatus()) || "BUILDING".equals(archive.get().getStatus()));
+        if (!queued && archiveRepo.countByStatus("PENDING") >= queueCapacity) {
+            throw new TooManyRequestsException("Server is busy with folder downloads, try again later");
+        }
+        archiveRepo.request(fingerprint, folderId, format.getExtension());
+        job.setStatus("PENDING");
+        return jobRepo.save(job).getId();
+    }
+
+    private boolean isServable(FolderZipArchive archive) {
+        if (!"READY".equals(archive.getStatus())) {
+            return false;
+        }
+        try {
+            return storageBackend.exists(archive.getArchiveKey());
+        } catch (IOException e) {
+            log.error("Failed to check archive " + e.getMessage());
+            return false;
+        }
+    }
+
+    // the job of the current user, other users' request ids are reported as unknown
+    public FolderDownloadStatus getStatus(UUID requestId) {
+        Users currentUser = currentUserUtils.getCurrentUser();
+        return jobRepo.findById(requestId)
+                .filter(job -> job.getOwner().getId().equals(currentUser.getId()))
+                .map(job -> view(job, archiveRepo.findById(job.getFingerprint()).orElse(null)))
+                .orElse(null);
+    }
+
+    // pushes the job transitions until it is finished
+    public SseEmitter subscribe(UUID requestId) {
+        FolderDownloadStatus job = getStatus(requestId);
+        if (job == null) {
+            throw new NotFoundException("RequestId not found");
+        }
+        return progressPublisher.subscribe(job);
+    }
+
+    // cancels a waiting job, or drops a finished one.
+    // the build itself stops at the next heartbeat once no job waits for it
+    public void cancel(UUID requestId) {
+        Users currentUser = currentUserUtils.getCurrentUser();
+        FolderZipJob job = jobRepo.findById(requestId)
+                .filter(found -> found.getOwner().getId().equals(currentUser.getId()))
+                .orElseThrow(() -> new NotFoundException("RequestId not found"));
+        if ("PENDING".equals(job.getStatus())) {
+            job.setStatus("CANCELLED");
+            job.setFinishedAt(Instant.now());
+            job.setExpiresAt(Instant.now().plus(ttl));
+            jobRepo.save(job);
+        } else {
+            jobRepo.delete(job);
+        }
+    }
+
+    // one tick of this node as a worker: report running builds, then take new ones while threads are free
+    public void work() {
+        heartbeat();
+        while (running.get() < threads) {
+            List<String> claimed = archiveRepo.claimNext(nodeId, Instant.now().minus(staleAfter), maxAttempts);
+            if (claimed.isEmpty()) {
+                break;
+            }
+            String fingerprint = claimed.get(0);
+            LocalBuild build = new LocalBuild();
+            localBuilds.put(fingerprint, build);
+            running.incrementAndGet();
+            try {
+                zipExecutor.execute(() -> run(fingerprint, build));
+            } catch (RejectedExecutionException e) {
+                // another node can take it
+                localBuilds.remove(fingerprint);
+                running.decrementAndGet();
+                archiveRepo.release(fingerprint, nodeId);
+                break;
+            }
+        }
+    }
+
+    private void heartbeat() {
+        localBuilds.forEach((fingerprint, build) -> {
+            int updated = archiveRepo.heartbeat(fingerprint, nodeId, build.entriesDone, build.entriesTotal,
+                    build.bytesDone, build.bytesTotal, Instant.now());
+            if (updated == 0 || jobRepo.countByFingerprintAndStatus(fingerprint, "PENDING") == 0) {
+                build.cancelled = true;
+            }
+        });
+    }
+
+    private void run(String fingerprint, LocalBuild build) {
+        Path zipPath = storageLayout.tempDir().resolve("zip-" + UUID.randomUUID() + ".part");
+        try {
+            if (build.cancelled) {
+                throw new CancellationException("Zip cancelled");
+            }
+            FolderZipArchive archive = archiveRepo.findById(fingerprint)
+                    .orElseThrow(() -> new CancellationException("Zip cancelled"));
+            Items folder = itemRepo.findById(archive.getFolderId())
+                    .filter(found -> found.getDeletedAt() == null)
+                    .orElseThrow(() -> new NotFoundException("Folder of zip " + fingerprint + " is gone"));
+            List<SubtreeItem> subtree = itemRepo.findLiveSubtree(folder.getId());
+            ArchiveFormat format = ArchiveFormat.of(archive.getFormat());
+            // the content changed since the request: this key must only ever hold what it was
+            // computed from, so the jobs move to the key of the folder as it is now
+            String current = FolderZipCache.fingerprint(folder, subtree, format);
+            if (!current.equals(fingerprint)) {
+                moveJobs(fingerprint, current, folder.getId(), format);
+                return;
+            }
+            List<FolderZipWriter.Entry> entries = folderZipWriter.collectEntries(folder, subtree);
+            build.entriesTotal = entries.size();
+            build.bytesTotal = entries.stream().mapToLong(FolderZipWriter.Entry::size).sum();
+
+            Files.createDirectories(zipPath.getParent());
+            try (OutputStream out = Files.newOutputStream(zipPath)) {
+                folderZipWriter.write(entries, out, new FolderZipWriter.Listener() {
+                    @Override
+                    public void bytesWritten(long bytes) {
+                        build.bytesDone += bytes;
+                    }
+
+                    @Override
+                    public void entryDone() {
+                        build.entriesDone++;
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return build.cancelled;
+                    }
+                }, format);
+            }
+            // built on the local scratch disk, then shared through the backend
+            long size = Files.size(zipPath);
+            String archiveKey = storageLayout.archiveKey(fingerprint, format.getExtension());
+            storageBackend.putFile(archiveKey, zipPath);
+            archiveRepo.complete(fingerprint, nodeId, archiveKey, size, build.entriesTotal, build.bytesTotal,
+                    Instant.now().plus(ttl));
+            folderZipCache.evict();
+        } catch (CancellationException e) {
+            log.info("Zip " + fingerprint + " cancelled");
+            // a job may have joined since the last heartbeat, then the build is queued again
+            if (archiveRepo.abandon(fingerprint, nodeId) == 0) {
+                archiveRepo.release(fingerprint, nodeId);
+            }
+        } catch (Exception e) {
+            log.error("Zip " + fingerprint + " failed", e);
+            archiveRepo.fail(fingerprint, nodeId, Instant.now().plus(ttl));
+        } finally {
+            localBuilds.remove(fingerprint);
+            running.decrementAndGet();
+            try {
+                Files.deleteIfExists(zipPath);
+            } catch (IOException e) {
+                log.error("Failed to delete file " + e.getMessage());
+            }
+        }
+    }
+
+    private void moveJobs(String from, String to, UUID folderId, ArchiveFormat format) {
+        log.info("Zip " + from + " is outdated, jobs moved to " + to);
+        Optional<FolderZipArchive> built = archiveRepo.findById(to).filter(this::isServable);
+        if (built.isPresent()) {
+            archiveRepo.touch(to, Instant.now());
+        } else {
+            archiveRepo.request(to, folderId, format.getExtension());
+        }
+        jobRepo.repoint(from, to, Instant.now().plus(ttl));
+        // a job that joined meanwhile keeps the old key queued, it moves on its next build
+        if (archiveRepo.abandon(from, nodeId) == 0) {
+            archiveRepo.release(from, nodeId);
+        }
+    }
+
+    // open event streams on this node get the state of their job, wherever it is being built
+    public void publishProgress() {
+        Set<UUID> requestIds = progressPublisher.requestIds();
+        if (requestIds.isEmpty()) {
+            return;
+        }
+        Map<UUID, FolderZipJob> jobs = jobRepo.findAllById(requestIds).stream()
+                .collect(Collectors.toMap(FolderZipJob::getId, Function.identity()));
+        Map<String, FolderZipArchive> archives = archiveRepo.findAllById(
+                        jobs.values().stream().map(FolderZipJob::getFingerprint).collect(Collectors.toSet())).stream()
+                .collect(Collectors.toMap(FolderZipArchive::getFingerprint, Function.identity()));
+        for (UUID requestId : requestIds) {
+            FolderZipJob job = jobs.get(requestId);
+            if (job == null) {
+                progressPublisher.close(requestId);
+            } else {
+                progressPublisher.publish(view(job, archives.get(job.getFingerprint())));
+            }
+        }
+    }
+
+    public void evictExpired() {
+        Instant now = Instant.now();
+        jobRepo.deleteExpired(now);
+        archiveRepo.failAbandoned(now.minus(staleAfter), maxAttempts, now.plus(ttl));
+        archiveRepo.deleteUnwanted();
+        folderZipCache.evict();
+        deleteStaleScratchFiles(now.minus(ttl));
+    }
+
+    // archives of builds killed by a restart, the build itself is claimed again by any node
+    private void deleteStaleScratchFiles(Instant before) {
+        Path tempDir = storageLayout.tempDir();
+        if (!Files.isDirectory(tempDir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(tempDir)) {
+            files.filter(file -> file.getFileName().toString().startsWith("zip-"))
+                    .forEach(file -> {
+                        try {
+                            if (Files.getLastModifiedTime(file).toInstant().isBefore(before)) {
+                                Files.deleteIfExists(file);
+                            }
+                        } catch (IOException e) {
+                            log.error("Failed to delete file " + e.getMessage());
+                        }
+                    });
+        } catch (IOException e) {
+            log.error("Failed to list scratch dir " + e.getMessage());
+        }
+    }
+
+    private FolderDownloadStatus view(FolderZipJob job, FolderZipArchive archive) {
+        String status = job.getStatus();
+        if ("PENDING".equals(status) && archive != null && "BUILDING".equals(archive.getStatus())) {
+            status = "PROCESSING";
+        }
+        FolderDownloadStatus view = FolderDownloadStatus.builder()
+                .requestId(job.getId())
+                .status(status)
+                .userId(job.getOwner().getId())
+                .folderId(job.getFolderId())
+                .createdAt(job.getCreatedDate())
+                .finishedAt(job.getFinishedAt())
+                .build();
+        if (archive != null) {
+            view.setFormat(ArchiveFormat.of(archive.getFormat()).getExtension());
+        }
+        if (archive != null && !"CANCELLED".equals(status)) {
+            view.setEntriesDone(archive.getEntriesDone());
+            view.setEntriesTotal(archive.getEntriesTotal());
+            view.setBytesDone(archive.getBytesDone());
+            view.setBytesTotal(archive.getBytesTotal());
+            if ("READY".equals(status)) {
+                view.setZipPath(archive.getArchiveKey());
+            }
+        }
+        return view;
+    }
+}
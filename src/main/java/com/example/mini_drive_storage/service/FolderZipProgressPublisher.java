@@ -0,0 +1,145 @@
+package com.example.mini_drive_storage.service;
+
+import com.example.mini_drive_storage.entity.FolderDownloadStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Server-sent events of folder zip jobs, instead of the client polling. The node holding the
+// stream reads the job state every tick and an event goes out when the status or the whole
+// percentage changes.
+@Component
+@Slf4j
+public class FolderZipProgressPublisher {
+    private final long timeoutMillis;
+
+    private final Map<UUID, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    public FolderZipProgressPublisher(@Value("${download.zip.events-timeout-ms:1800000}") long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    // open streams of one job and what they were last sent
+    private static final class Subscription {
+        private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+        private String lastStatus;
+        private int lastPercent = -1;
+    }
+
+    public static String downloadUrl(UUID requestId) {
+        return "/api/v1/files/downloads/" + requestId + "/file";
+    }
+
+    // the current state goes out right away, a finished job closes the stream after it
+    public SseEmitter subscribe(FolderDownloadStatus job) {
+        UUID requestId = job.getRequestId();
+        SseEmitter emitter = newEmitter();
+        subscriptions.compute(requestId, (id, subscription) -> {
+            Subscription current = subscription != null ? subscription : new Subscription();
+            current.emitters.add(emitter);
+            return current;
+        });
+        Runnable remove = () -> unsubscribe(requestId, emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(error -> remove.run());
+
+        if (send(emitter, job) && !job.isActive()) {
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    protected SseEmitter newEmitter() {
+        return new SseEmitter(timeoutMillis);
+    }
+
+    public void publish(FolderDownloadStatus job) {
+        Subscription subscription = subscriptions.get(job.getRequestId());
+        if (subscription == null) {
+            return;
+        }
+        int percent = percent(job);
+        // progress callbacks come per entry, only real changes are worth a network write
+        synchronized (subscription) {
+            if (job.getStatus().equals(subscription.lastStatus) && percent == subscription.lastPercent) {
+                return;
+            }
+            subscription.lastStatus = job.getStatus();
+            subscription.lastPercent = percent;
+        }
+        for (SseEmitter emitter : subscription.emitters) {
+            if (send(emitter, job) && !job.isActive()) {
+                emitter.complete();
+            }
+        }
+    }
+
+    // jobs with an open stream on this node
+    public Set<UUID> requestIds() {
+        return Set.copyOf(subscriptions.keySet());
+    }
+
+    // the job is gone, its streams end
+    public void close(UUID requestId) {
+        Subscription subscription = subscriptions.remove(requestId);
+        if (subscription != null) {
+            subscription.emitters.forEach(SseEmitter::complete);
+        }
+    }
+
+    private boolean send(SseEmitter emitter, FolderDownloadStatus job) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .name("status")
+                    .data(event(job)));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            // the client went away, the servlet container reports it through onError/onCompletion
+            log.debug("Failed to send zip progress " + e.getMessage());
+            unsubscribe(job.getRequestId(), emitter);
+            return false;
+        }
+    }
+
+    private void unsubscribe(UUID requestId, SseEmitter emitter) {
+        subscriptions.computeIfPresent(requestId, (id, subscription) -> {
+            subscription.emitters.remove(emitter);
+            return subscription.emitters.isEmpty() ? null : subscription;
+        });
+    }
+
+    private Map<String, Object> event(FolderDownloadStatus job) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("status", job.getStatus());
+        event.put("percent", percent(job));
+        event.put("entriesDone", job.getEntriesDone());
+        event.put("entriesTotal", job.getEntriesTotal());
+        event.put("bytesDone", job.getBytesDone());
+        event.put("bytesTotal", job.getBytesTotal());
+        if ("READY".equals(job.getStatus())) {
+            event.put("downloadUrl", downloadUrl(job.getRequestId()));
+        }
+        return event;
+    }
+
+    private static int percent(FolderDownloadStatus job) {
+        if ("READY".equals(job.getStatus())) {
+            return 100;
+        }
+        if (job.getBytesTotal() > 0) {
+            return (int) (job.getBytesDone() * 100 / job.getBytesTotal());
+        }
+        return job.getEntriesTotal() > 0 ? job.getEntriesDone() * 100 / job.getEntriesTotal() : 0;
+    }
+}
@@ -0,0 +1,341 @@
+package com.example.mini_drive_storage.service;
+
+import com.example.mini_drive_storage.dto.SubtreeItem;
+import com.example.mini_drive_storage.entity.Items;
+import com.example.mini_drive_storage.enums.ArchiveFormat;
+import com.example.mini_drive_storage.enums.ItemType;
+import com.example.mini_drive_storage.repo.ItemRepo;
+import com.example.mini_drive_storage.storage.CompressionPolicy;
+import com.example.mini_drive_storage.storage.ContentCodec;
+import com.example.mini_drive_storage.storage.StorageBackend;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+// Builds the zip of a folder, used by the streaming download and by the zip jobs.
+// Entries are compressed ahead on the compression pool and copied raw into the archive in order.
+// tar and tar.zst exports skip the per-entry work: files are copied from storage as they are,
+// tar.zst compresses the whole stream once.
+@Component
+@Slf4j
+public class FolderZipWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // entries up to this size are compressed in memory, bigger ones into a scratch file
+    private static final int IN_MEMORY_LIMIT = 1024 * 1024;
+
+    private final ItemRepo itemRepo;
+    private final StorageBackend storageBackend;
+    private final StorageLayout storageLayout;
+    private final AsyncTaskExecutor compressionExecutor;
+    private final List<String> storedMimeTypes;
+    private final int window;
+    private final int zstdLevel;
+
+    public FolderZipWriter(ItemRepo itemRepo,
+                           StorageBackend storageBackend,
+                           StorageLayout storageLayout,
+                           @Qualifier("zipCompressionExecutor") AsyncTaskExecutor compressionExecutor,
+                           @Value("${download.zip.stored-mime-types:image/jpeg,image/png,image/gif,image/webp,image/avif,image/heic,video/*,audio/*,application/zip,application/gzip,application/x-7z-compressed,application/x-rar-compressed,application/x-bzip2,application/x-xz,application/zstd}") List<String> storedMimeTypes,
+                           @Value("${download.zip.compression-window:8}") int window,
+                           @Value("${download.zip.zstd-level:3}") int zstdLevel) {
+        this.itemRepo = itemRepo;
+        this.storageBackend = storageBackend;
+        this.storageLayout = storageLayout;
+        this.compressionExecutor = compressionExecutor;
+        this.storedMimeTypes = storedMimeTypes.stream().map(type -> type.trim().toLowerCase(Locale.ROOT)).toList();
+        this.window = Math.max(1, window);
+        this.zstdLevel = zstdLevel;
+    }
+
+    public record Entry(String name, String path, long size, String mimeType) {
+    }
+
+    // progress callbacks of a zip job, the default one never cancels
+    public interface Listener {
+        Listener NONE = new Listener() {
+        };
+
+        default void bytesWritten(long bytes) {
+        }
+
+        default void entryDone() {
+        }
+
+        default boolean isCancelled() {
+            return false;
+        }
+    }
+
+    // raw payload of a compressed entry and what its zip headers need
+    private record Compressed(int method, long crc, long size, long compressedSize, byte[] data, Path file) {
+        InputStream open() throws IOException {
+            return data != null ? new ByteArrayInputStream(data) : Files.newInputStream(file);
+        }
+
+        void discard() {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    log.error("Failed to delete zip scratch file " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // files of the folder tree with their path inside the archive, sorted by that path.
+    // the subtree comes from a single query, see ItemRepo.findLiveSubtree
+    public List<Entry> collectEntries(Items folder, List<SubtreeItem> subtree) {
+        Map<UUID, String> folderPaths = new HashMap<>();
+        folderPaths.put(folder.getId(), folder.getName());
+        List<Entry> entries = new ArrayList<>();
+        for (SubtreeItem item : subtree) {
+            // rows come parents first, so the parent path is always known here
+            add(item, folderPaths.get(item.getParentId()) + "/" + item.getName(), folderPaths, entries);
+        }
+        entries.sort(Comparator.comparing(Entry::name));
+        return entries;
+    }
+
+    // entries of a multi-item selection, see ItemRepo.findLiveSelection. the selected items sit
+    // at the root of the archive, same names get a " (n)" suffix
+    public List<Entry> collectSelectionEntries(List<SubtreeItem> selection) {
+        Map<UUID, String> folderPaths = new HashMap<>();
+        Set<String> rootNames = new HashSet<>();
+        List<Entry> entries = new ArrayList<>();
+        for (SubtreeItem item : selection) {
+            String parentPath = folderPaths.get(item.getParentId());
+            String name = parentPath != null ? parentPath + "/" + item.getName() : uniqueName(item.getName(), rootNames);
+            add(item, name, folderPaths, entries);
+        }
+        entries.sort(Comparator.comparing(Entry::name));
+        return entries;
+    }
+
+    private static void add(SubtreeItem item, String name, Map<UUID, String> folderPaths, List<Entry> entries) {
+        if (ItemType.FOLDER.name().equals(item.getType())) {
+            folderPaths.put(item.getId(), name);
+        } else if (ItemType.FILE.name().equals(item.getType()) && item.getPath() != null) {
+            entries.add(new Entry(name, item.getPath(), item.getSize() != null ? item.getSize() : 0, item.getMimeType()));
+        }
+    }
+
+    private static String uniqueName(String name, Set<String> taken) {
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        String candidate = name;
+        for (int n = 2; !taken.add(candidate); n++) {
+            candidate = base + " (" + n + ")" + extension;
+        }
+        return candidate;
+    }
+
+    // Zip64 records are written by themselves past 4 GB or 65535 entries, deleted items are left out
+    public void write(Items folder, OutputStream out, ArchiveFormat format) throws IOException {
+        write(collectEntries(folder, itemRepo.findLiveSubtree(folder.getId())), out, Listener.NONE, format);
+    }
+
+    public void writeSelection(List<SubtreeItem> selection, OutputStream out, ArchiveFormat format) throws IOException {
+        write(collectSelectionEntries(selection), out, Listener.NONE, format);
+    }
+
+    public void write(List<Entry> entries, OutputStream out, Listener listener, ArchiveFormat format) throws IOException {
+        switch (format) {
+            case ZIP -> write(entries, out, listener);
+            case TAR -> writeTar(entries, out, listener);
+            case TAR_ZST -> {
+                try (ZstdCompressorOutputStream zstd = new ZstdCompressorOutputStream(CloseShieldOutputStream.wrap(out), zstdLevel)) {
+                    writeTar(entries, zstd, listener);
+                }
+            }
+        }
+    }
+
+    // sizes go in the entry headers, so they come from the items instead of the copied bytes.
+    // the content has to pass through the tar stream, which counts it against the header and
+    // pads the record, so it cannot be handed to transferTo/sendfile; one buffer serves the archive
+    private void writeTar(List<Entry> entries, OutputStream out, Listener listener) throws IOException {
+        try (TarArchiveOutputStream tos = new TarArchiveOutputStream(CloseShieldOutputStream.wrap(out))) {
+            tos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tos.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            tos.setAddPaxHeadersForNonAsciiNames(true);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (Entry entry : entries) {
+                if (listener.isCancelled()) {
+                    throw new CancellationException("Zip cancelled");
+                }
+                TarArchiveEntry tarEntry = new TarArchiveEntry(entry.name());
+                tarEntry.setSize(entry.size());
+                tos.putArchiveEntry(tarEntry);
+                try (InputStream in = ContentCodec.decode(entry.path(), storageBackend.get(entry.path()))) {
+                    int length;
+                    while ((length = in.read(buffer)) != -1) {
+                        if (listener.isCancelled()) {
+                            throw new CancellationException("Zip cancelled");
+                        }
+                        tos.write(buffer, 0, length);
+                    }
+                }
+                tos.closeArchiveEntry();
+                listener.bytesWritten(entry.size());
+                listener.entryDone();
+            }
+            tos.finish();
+        }
+    }
+
+    public void write(List<Entry> entries, OutputStream out, Listener listener) throws IOException {
+        AtomicBoolean aborted = new AtomicBoolean();
+        BooleanSupplier stop = () -> aborted.get() || listener.isCancelled();
+        Deque<Future<Compressed>> pending = new ArrayDeque<>();
+        int next = 0;
+        // the output stream belongs to the caller, only the archive is completed
+        try (ZipArchiveOutputStream zos = new ZipArchiveOutputStream(CloseShieldOutputStream.wrap(out))) {
+            zos.setUseZip64(Zip64Mode.AsNeeded);
+            for (Entry entry : entries) {
+                // keep a bounded number of entries compressing ahead of the one being written
+                while (next < entries.size() && pending.size() < window) {
+                    Entry ahead = entries.get(next++);
+                    pending.add(compressionExecutor.submit(() -> compress(ahead, stop)));
+                }
+                if (listener.isCancelled()) {
+                    throw new CancellationException("Zip cancelled");
+                }
+                Compressed compressed = await(pending.poll());
+                try (InputStream raw = compressed.open()) {
+                    zos.addRawArchiveEntry(zipEntry(entry, compressed), raw);
+                } finally {
+                    compressed.discard();
+                }
+                listener.bytesWritten(compressed.size());
+                listener.entryDone();
+            }
+            zos.finish();
+        } finally {
+            // workers see the flag and stop early, then their scratch files are dropped
+            aborted.set(true);
+            for (Future<Compressed> future : pending) {
+                try {
+                    future.get().discard();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException | CancellationException ignored) {
+                    // nothing was kept by a failed worker
+                }
+            }
+        }
+    }
+
+    private Compressed compress(Entry entry, BooleanSupplier stop) throws IOException {
+        if (stop.getAsBoolean()) {
+            throw new CancellationException("Zip cancelled");
+        }
+        // jpeg, video, archives... would only cost cpu to deflate again
+        boolean store = CompressionPolicy.matches(entry.mimeType(), storedMimeTypes);
+        Path file = null;
+        ByteArrayOutputStream memory = null;
+        if (entry.size() > IN_MEMORY_LIMIT) {
+            Files.createDirectories(storageLayout.tempDir());
+            file = Files.createTempFile(storageLayout.tempDir(), "zip-", ".part");
+        } else {
+            memory = new ByteArrayOutputStream((int) Math.max(entry.size(), 32));
+        }
+        Deflater deflater = store ? null : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (InputStream in = ContentCodec.decode(entry.path(), storageBackend.get(entry.path()));
+             OutputStream target = file != null ? new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE) : memory;
+             OutputStream payload = deflater != null ? new DeflaterOutputStream(target, deflater, BUFFER_SIZE) : target) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                if (stop.getAsBoolean()) {
+                    throw new CancellationException("Zip cancelled");
+                }
+                crc.update(buffer, 0, length);
+                payload.write(buffer, 0, length);
+                size += length;
+            }
+        } catch (IOException | RuntimeException e) {
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+            throw e;
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        return new Compressed(store ? ZipEntry.STORED : ZipEntry.DEFLATED, crc.getValue(), size,
+                file != null ? Files.size(file) : memory.size(),
+                memory != null ? memory.toByteArray() : null, file);
+    }
+
+    private ZipArchiveEntry zipEntry(Entry entry, Compressed compressed) {
+        ZipArchiveEntry zipEntry = new ZipArchiveEntry(entry.name());
+        zipEntry.setMethod(compressed.method());
+        zipEntry.setCrc(compressed.crc());
+        zipEntry.setSize(compressed.size());
+        zipEntry.setCompressedSize(compressed.compressedSize());
+        return zipEntry;
+    }
+
+    private Compressed await(Future<Compressed> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing zip entries");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.mini_drive_storage.service;
+
+import com.example.mini_drive_storage.entity.FilePermission;
+import com.example.mini_drive_storage.entity.Items;
+import com.example.mini_drive_storage.entity.Users;
+import com.example.mini_drive_storage.enums.PermissionLevel;
+import com.example.mini_drive_storage.repo.FilePermissionRepo;
+import com.example.mini_drive_storage.repo.ItemRepo;
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Metadata side of bulk uploads: all rows of one request are inserted in one transaction,
+// hibernate groups them into jdbc batches (see hibernate.jdbc.batch_size)
+@Service
+@RequiredArgsConstructor
+public class ItemBatchService {
+    private final ItemRepo itemRepo;
+    private final FilePermissionRepo filePermissionRepo;
+
+    @Transactional
+    public List<Items> saveFilesWithPermissions(List<Items> files, Items parent, Users owner) {
+        List<Items> savedItems = itemRepo.saveAll(files);
+        List<FilePermission> permissions = new ArrayList<>();
+        for (Items item : savedItems) {
+            permissions.addAll(buildInitialPermissions(item, parent, owner));
+        }
+        if (!permissions.isEmpty()) {
+            filePermissionRepo.saveAll(permissions);
+        }
+        return savedItems;
+    }
+
+    // root items belong to the owner. items in a folder get no rows, the folder permissions
+    // reach them through PermissionService.resolveLevel
+    public static List<FilePermission> buildInitialPermissions(Items item, Items parent, Users owner) {
+        if (parent != null) {
+            return List.of();
+        }
+        return List.of(FilePermission.builder()
+                .item(item)
+                .sharedToUser(owner)
+                .permissionLevel(PermissionLevel.EDIT)
+                .inherited(false)
+                .build());
+    }
+}
@@ -4,13 +4,12 @@ import com.example.mini_drive_storage.entity.Items;
 import com.example.mini_drive_storage.enums.ItemType;
 import com.example.mini_drive_storage.repo.FilePermissionRepo;
 import com.example.mini_drive_storage.repo.ItemRepo;
+import com.example.mini_drive_storage.storage.StorageBackend;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.List;
 
 @Service
@@ -19,6 +18,8 @@ import java.util.List;
 public class ItemCleanupService {
     private final ItemRepo itemRepo;
     private final FilePermissionRepo filePermissionRepo;
+    private final BlobStoreService blobStoreService;
+    private final StorageBackend storageBackend;
 
     @Transactional
     public void hardDeleteRecursive(Items item) {
@@ -28,9 +29,12 @@ public class ItemCleanupService {
                 hardDeleteRecursive(child);
             }
         }
-        if (item.getType() == ItemType.FILE && item.getPath() != null) {
+        if (item.getType() == ItemType.FILE && item.getContentHash() != null) {
+            // shared blob, only removed from storage when the last item goes away
+            blobStoreService.release(item.getContentHash());
+        } else if (item.getType() == ItemType.FILE && item.getPath() != null) {
             try {
-                Files.deleteIfExists(Paths.get(item.getPath()));
+                storageBackend.delete(item.getPath());
             } catch (Exception e) {
                 log.error("Failed to delete file " + e.getMessage());
             }
@@ -1,10 +1,12 @@
 package com.example.mini_drive_storage.service;
 
 import com.example.mini_drive_storage.dto.*;
+import com.example.mini_drive_storage.entity.Blob;
 import com.example.mini_drive_storage.entity.FilePermission;
 import com.example.mini_drive_storage.entity.FolderDownloadStatus;
 import com.example.mini_drive_storage.entity.Items;
 import com.example.mini_drive_storage.entity.Users;
+import com.example.mini_drive_storage.enums.ArchiveFormat;
 import com.example.mini_drive_storage.enums.ItemType;
 import com.example.mini_drive_storage.enums.PermissionLevel;
 import com.example.mini_drive_storage.exception.InvalidRequestException;
@@ -12,16 +14,21 @@ import com.example.mini_drive_storage.exception.NotFoundException;
 import com.example.mini_drive_storage.repo.FilePermissionRepo;
 import com.example.mini_drive_storage.repo.ItemRepo;
 import com.example.mini_drive_storage.repo.UserRepo;
+import com.example.mini_drive_storage.storage.ContentCodec;
+import com.example.mini_drive_storage.storage.StorageBackend;
+import com.example.mini_drive_storage.utils.ByteRangeUtils;
+import com.example.mini_drive_storage.utils.ConditionalRequestUtils;
 import com.example.mini_drive_storage.utils.CurrentUserUtils;
-import jakarta.annotation.PostConstruct;
 import jakarta.transaction.Transactional;
 import jakarta.validation.Valid;
 import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -29,14 +36,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.security.Permission;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 @Service
 @AllArgsConstructor
@@ -46,58 +51,55 @@ public class ItemService {
     private ItemRepo itemRepo;
     private FilePermissionRepo filePermissionRepo;
     private final CurrentUserUtils currentUserUtils;
-
-    @PostConstruct // when bean service created successfully, this method will start once
-    public void initStorage() {
-        try {
-            Path root = Paths.get(UPLOAD_ROOT);
-            if (Files.notExists(root)) {
-                Files.createDirectories(root);
-            }
-        } catch (IOException e) {
-            throw new RuntimeException("Could not initialize storage", e);
-        }
+    private final BlobStoreService blobStoreService;
+    private final ItemBatchService itemBatchService;
+    @Qualifier("uploadExecutor")
+    private final Executor uploadExecutor;
+    private final StorageBackend storageBackend;
+    private final FolderZipJobService folderZipJobService;
+    private final PermissionService permissionService;
+    private final AuthorizationContext authorizationContext;
+
+    // the endpoint's permission check usually loaded the item already
+    private Optional<Items> findItem(UUID id) {
+        return authorizationContext.item(id).or(() -> itemRepo.findById(id));
     }
 
-    private static final String UPLOAD_ROOT = "storage";
-
     private void checkEditPermission(Items item, Users user) {
-        if (item.getOwner().equals(user)) {
+        if (item.getOwner().getId().equals(user.getId())) {
             return;
         }
-        FilePermission permission = (FilePermission) filePermissionRepo
-                .findByItemAndSharedToUser(item, user)
-                .orElseThrow(() ->
-                        new InvalidRequestException("You don't have permission to upload to this folder"));
-
-        if (permission.getPermissionLevel() != PermissionLevel.EDIT) {
+        PermissionLevel level = permissionService.resolveLevel(user.getId(), item.getId());
+        if (level == null) {
+            throw new InvalidRequestException("You don't have permission to upload to this folder");
+        }
+        if (level != PermissionLevel.EDIT) {
             throw new InvalidRequestException("You don't have edit permission");
         }
     }
 
     private void createInitialPermissions(Items item, Items parent, Users owner) {
-        if (parent == null) {
-            FilePermission permission = FilePermission.builder()
-                    .item(item)
-                    .sharedToUser(owner)
-                    .permissionLevel(PermissionLevel.EDIT)
-                    .inherited(false)
-                    .build();
+        for (FilePermission permission : ItemBatchService.buildInitialPermissions(item, parent, owner)) {
             filePermissionRepo.save(permission);
-        } else {
-            List<FilePermission> parentPermissions = filePermissionRepo.findByItem(parent);
-            for (FilePermission p : parentPermissions) {
-                FilePermission childPerm = FilePermission.builder()
-                        .item(item)
-                        .sharedToUser(p.getSharedToUser())
-                        .permissionLevel(p.getPermissionLevel())
-                        .inherited(true)
-                        .build();
-                filePermissionRepo.save(childPerm);
-            }
         }
     }
 
+    // check parent folder, uploads without parent are stored at the root
+    public Items resolveUploadParent(UUID parentId, Users currentUser) {
+        if (parentId == null) {
+            return null;
+        }
+        Items parent = itemRepo.findById(parentId)
+                .orElseThrow(() -> new NotFoundException("Parent folder not found"));
+
+        if (parent.getType() != ItemType.FOLDER) {
+            throw new InvalidRequestException("Parent is not folder");
+        }
+        // file in a parent folder, check parent folder have permission edit to current user
+        checkEditPermission(parent, currentUser);
+        return parent;
+    }
+
     public List<ItemResponseDto> uploadFiles(List<MultipartFile> files, UUID parentId) {
         Users currentUser = currentUserUtils.getCurrentUser();
 
@@ -105,59 +107,93 @@ public class ItemService {
         if (files == null || files.isEmpty()) {
             throw new InvalidRequestException("File is empty");
         }
-        // check parent folder
-        Items parent = null;
-
-        if (parentId != null) {
-            parent = itemRepo.findById(parentId)
-                    .orElseThrow(() -> new NotFoundException("Parent folder not found"));
+        Items parent = resolveUploadParent(parentId, currentUser);
 
-            if (parent.getType() != ItemType.FOLDER) {
-                throw new InvalidRequestException("Parent is not folder");
-            }
+        List<MultipartFile> nonEmptyFiles = files.stream()
+                .filter(file -> file.getSize() > 0)
+                .toList();
+        // identical content is stored once, items only point to the shared blob
+        List<Blob> blobs = storeBlobsConcurrently(nonEmptyFiles);
 
+        List<Items> newItems = new ArrayList<>();
+        for (int i = 0; i < nonEmptyFiles.size(); i++) {
+            MultipartFile file = nonEmptyFiles.get(i);
+            newItems.add(buildFileItem(file.getOriginalFilename(), file.getContentType(), blobs.get(i), parent, currentUser));
         }
-        // if these file in a parent folder, check parent folder have permission edit to current user
-        if (parent != null) {
-            checkEditPermission(parent, currentUser);
+        List<Items> savedItems;
+        try {
+            savedItems = itemBatchService.saveFilesWithPermissions(newItems, parent, currentUser);
+        } catch (RuntimeException e) {
+            blobs.forEach(blob -> blobStoreService.release(blob.getHash()));
+            throw e;
+        }
+        for (Items savedItem : savedItems) {
+            itemResponseDtos.add(ItemResponseDto.from(savedItem));
         }
+        return itemResponseDtos;
+    }
 
-// if these files don't belong to any parent folder => store to the root
-        Path parentDir = parent == null
-                ? Paths.get(UPLOAD_ROOT)
-                : Paths.get(UPLOAD_ROOT, parent.getId().toString());
-        if (Files.notExists(parentDir)) {
-            try {
-                Files.createDirectories(parentDir);
-            } catch (IOException e) {
-                throw new RuntimeException("Could not initialize storage", e);
+    // file copies run in parallel on the bounded upload pool, result order matches the input
+    private List<Blob> storeBlobsConcurrently(List<MultipartFile> files) {
+        List<CompletableFuture<Blob>> stores = files.stream()
+                .map(file -> CompletableFuture.supplyAsync(() -> blobStoreService.store(file), uploadExecutor))
+                .toList();
+        try {
+            CompletableFuture.allOf(stores.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            // keep the blob store consistent, drop what the successful copies referenced
+            stores.stream()
+                    .filter(store -> !store.isCompletedExceptionally())
+                    .forEach(store -> blobStoreService.release(store.join().getHash()));
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
             }
+            throw e;
         }
+        return stores.stream().map(CompletableFuture::join).toList();
+    }
 
-        for (MultipartFile file : files) {
-            if (file.getSize() == 0) continue;
-            String originalFilename = file.getOriginalFilename();
-            String storageFileName = UUID.randomUUID().toString() + "_" + originalFilename;
-            Path filePath = parentDir.resolve(storageFileName);
-            try {
-                Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-            } catch (IOException e) {
-                throw new RuntimeException("Could not upload file", e);
-            }
-            Items items = Items.builder()
-                    .name(originalFilename)
-                    .type(ItemType.FILE)
-                    .size(file.getSize())
-                    .path(filePath.toString())
-                    .mimeType(file.getContentType())
-                    .parent(parent)
-                    .owner(currentUser)
-                    .build();
-            Items savedItem = itemRepo.save(items);
-            createInitialPermissions(savedItem, parent, currentUser);
-            itemResponseDtos.add(ItemResponseDto.from(savedItem));
+    // raw request body upload, the content is written once while it arrives
+    public ItemResponseDto uploadFileContent(InputStream content, String name, String contentType, UUID parentId) {
+        Users currentUser = currentUserUtils.getCurrentUser();
+        if (name == null || name.isBlank()) {
+            throw new InvalidRequestException("File name is empty");
         }
-        return itemResponseDtos;
+        Items parent = resolveUploadParent(parentId, currentUser);
+
+        Blob blob = blobStoreService.store(content, contentType);
+        if (blob.getSize() == 0) {
+            blobStoreService.release(blob.getHash());
+            throw new InvalidRequestException("File is empty");
+        }
+        Items savedItem;
+        try {
+            savedItem = createFileItem(name, contentType, blob, parent, currentUser);
+        } catch (RuntimeException e) {
+            blobStoreService.release(blob.getHash());
+            throw e;
+        }
+        return ItemResponseDto.from(savedItem);
+    }
+
+    // item row and its initial permissions for content already in the blob store, in one
+    // transaction of ItemBatchService, so it also holds when called from inside this class
+    public Items createFileItem(String name, String mimeType, Blob blob, Items parent, Users owner) {
+        List<Items> files = List.of(buildFileItem(name, mimeType, blob, parent, owner));
+        return itemBatchService.saveFilesWithPermissions(files, parent, owner).get(0);
+    }
+
+    private Items buildFileItem(String name, String mimeType, Blob blob, Items parent, Users owner) {
+        return Items.builder()
+                .name(name)
+                .type(ItemType.FILE)
+                .size(blob.getSize())
+                .path(blob.getPath())
+                .contentHash(blob.getHash())
+                .mimeType(mimeType)
+                .parent(parent)
+                .owner(owner)
+                .build();
     }
 
     public ItemResponseDto createFolder(CreateFolderRequest createFolderRequest) {
@@ -189,8 +225,8 @@ public class ItemService {
         return ItemResponseDto.from(savedItem);
     }
 
-    public ResponseEntity<?> downloadFile(UUID id) {
-        Items item = itemRepo.findById(id)
+    public ResponseEntity<?> downloadFile(UUID id, HttpHeaders requestHeaders) {
+        Items item = findItem(id)
                 .orElseThrow(() -> new NotFoundException("Item not found"));
 
         if (item.getType() != ItemType.FILE) {
@@ -201,112 +237,143 @@ public class ItemService {
 
         // if this file is shared to this user, user can download this file;
         // owner can download file
-        if (!item.getOwner().getId().equals(currentUser.getId())) {
+        if (!item.getOwner().getId().equals(currentUser.getId())
+                && permissionService.resolveLevel(currentUser.getId(), item.getId()) == null) {
+            throw new InvalidRequestException("No permission to download");
+        }
 
-            FilePermission permission = filePermissionRepo
-                    .findByItemAndSharedToUser(item, currentUser)
-                    .orElseThrow(() -> new InvalidRequestException("No permission to download"));
+        // compressed blobs go out as stored when the client can decode them
+        String path = item.getPath();
+        String storedEncoding = ContentCodec.encodingOf(path);
+        boolean passThrough = ContentCodec.accepts(requestHeaders.getFirst(HttpHeaders.ACCEPT_ENCODING), storedEncoding);
+        // byte ranges address the stored bytes, decoded content is only sent whole
+        boolean rangesSupported = storedEncoding == null || passThrough;
 
-            if (permission.getPermissionLevel() != PermissionLevel.VIEW
-                    && permission.getPermissionLevel() != PermissionLevel.EDIT) {
-                throw new InvalidRequestException("No permission to download");
-            }
+        String contentType = item.getMimeType() != null
+                ? item.getMimeType()
+                : "application/octet-stream";
+        Instant lastModified = item.getUpdatedDate() != null ? item.getUpdatedDate() : item.getCreatedDate();
+        String etag = downloadETag(item, passThrough ? storedEncoding : null);
+
+        HttpHeaders validators = new HttpHeaders();
+        validators.setETag(etag);
+        // clients may keep a copy but have to revalidate it
+        validators.setCacheControl(CacheControl.noCache().cachePrivate());
+        if (lastModified != null) {
+            validators.setLastModified(lastModified);
+        }
+        if (storedEncoding != null) {
+            validators.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        // answered from the item row alone, the file is not touched
+        if (ConditionalRequestUtils.isNotModified(requestHeaders, etag, lastModified)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(validators).build();
         }
 
-        // check if this file is exist on this storage app
-        Path path = Paths.get(item.getPath());
-        if (Files.notExists(path)) {
-            throw new NotFoundException("File not found");
+        HttpHeaders headers = new HttpHeaders();
+        headers.addAll(validators);
+        headers.setContentType(MediaType.parseMediaType(contentType));
+        // Content-Disposition tell the user how to resolve data
+        // attachment mean force to download
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + item.getName() + "\"");
+        headers.set(HttpHeaders.ACCEPT_RANGES, rangesSupported ? "bytes" : "none");
+        if (passThrough) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, storedEncoding);
         }
 
-        // input stream use to read binary file: pdf,doc,zip,...
-        InputStreamResource resource;
         try {
-            resource = new InputStreamResource(Files.newInputStream(path));
+            // check if this file is exist on this storage app
+            if (!storageBackend.exists(path)) {
+                throw new NotFoundException("File not found");
+            }
+            String range = requestHeaders.getFirst(HttpHeaders.RANGE);
+            if (rangesSupported && range != null
+                    && ByteRangeUtils.ifRangeMatches(requestHeaders.getFirst(HttpHeaders.IF_RANGE), etag, lastModified)) {
+                long length = storageBackend.size(path);
+                List<ByteRangeUtils.Segment> segments = ByteRangeUtils.resolve(range, length);
+                if (segments != null) {
+                    return partialContent(path, contentType, length, segments, headers);
+                }
+            }
+
+            if (storedEncoding != null && !passThrough) {
+                // decoded while it is sent, the item keeps the logical size
+                if (item.getSize() != null) {
+                    headers.setContentLength(item.getSize());
+                }
+                InputStream decoded = ContentCodec.decode(path, storageBackend.get(path));
+                return ResponseEntity.ok().headers(headers).body(new InputStreamResource(decoded));
+            }
+            long length = storageBackend.size(path);
+            headers.setContentLength(length);
+            return ResponseEntity.ok().headers(headers).body(fileBody(path, 0, length));
         } catch (IOException e) {
             throw new RuntimeException("Could not open file", e);
         }
-
-        String contentType = item.getMimeType() != null
-                ? item.getMimeType()
-                : "application/octet-stream";
-
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(contentType))
-                // Content-Disposition tell the user how to resolve data
-                // attachment mean force to download
-                .header(HttpHeaders.CONTENT_DISPOSITION,
-                        "attachment; filename=\"" + item.getName() + "\"")
-                .body(resource);
     }
 
-    private final Map<UUID, FolderDownloadStatus> folderDownloadMap = new ConcurrentHashMap<>();
-
-    public FolderDownloadStatus getFolderDownloadStatus(UUID requestId) {
-        return folderDownloadMap.get(requestId);
+    // strong validator: the content hash identifies the bytes, each encoding is its own representation
+    private static String downloadETag(Items item, String encoding) {
+        String tag = item.getContentHash() != null
+                ? item.getContentHash()
+                : item.getId() + "-" + (item.getUpdatedDate() != null ? item.getUpdatedDate().toEpochMilli() : 0);
+        return "\"" + (encoding != null ? tag + "-" + encoding : tag) + "\"";
     }
 
-    public UUID triggerAsyncZip(UUID id) {
-        Items item = itemRepo.findById(id)
-                .orElseThrow(() -> new NotFoundException("Item not found"));
-        if (item.getType() != ItemType.FOLDER) {
-            throw new InvalidRequestException("Item is not folder");
+    // local files are sent with transferTo / sendfile, other backends are streamed
+    private Object fileBody(String path, long offset, long count) throws IOException {
+        Optional<Path> file = storageBackend.localPath(path);
+        if (file.isPresent()) {
+            return new FileRegion(file.get(), offset, count);
         }
-        Users currentUser = currentUserUtils.getCurrentUser();
-        // if this folder is shared to this user, user can download this folder;
-        FilePermission permission = (FilePermission) filePermissionRepo.findByItemAndSharedToUser(item, currentUser)
-                .orElseThrow(() -> new InvalidRequestException("No permission to download"));
-        UUID requestId = UUID.randomUUID();
-        folderDownloadMap.put(requestId, new FolderDownloadStatus("PENDING", null));
-
-        zipFolderAsync(item, requestId);
-
-        return requestId;
+        InputStream in = offset == 0 ? storageBackend.get(path) : storageBackend.getRange(path, offset, count);
+        return new InputStreamResource(in);
     }
 
-    @Async
-    public void zipFolderAsync(Items item, UUID requestId) {
-        FolderDownloadStatus folderDownloadStatus = folderDownloadMap.get(requestId);
-        folderDownloadStatus.setStatus("PROCESSING");
+    // 206 with one range, multipart/byteranges with several, 416 when none can be served
+    private ResponseEntity<?> partialContent(String path, String contentType, long length,
+                                             List<ByteRangeUtils.Segment> segments, HttpHeaders headers) throws IOException {
+        if (segments.isEmpty()) {
+            HttpHeaders rangeHeaders = new HttpHeaders();
+            rangeHeaders.set(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).headers(rangeHeaders).build();
+        }
+        if (segments.size() == 1) {
+            ByteRangeUtils.Segment segment = segments.get(0);
+            headers.set(HttpHeaders.CONTENT_RANGE, segment.contentRange(length));
+            headers.setContentLength(segment.length());
+            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers)
+                    .body(fileBody(path, segment.start(), segment.length()));
+        }
+        String boundary = UUID.randomUUID().toString();
+        headers.setContentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary));
+        headers.setContentLength(ByteRangeUtils.multipartLength(segments, boundary, contentType, length));
+        InputStream body = ByteRangeUtils.multipartStream(segments, boundary, contentType, length,
+                (offset, count) -> storageBackend.getRange(path, offset, count));
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).body(new InputStreamResource(body));
+    }
 
-        try {
-            Path zipPath = Paths.get(UPLOAD_ROOT, requestId + ".zip").toAbsolutePath();
-            try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipPath))) {
-                addFolderToZip(item, item.getName(), zos);
-            }
-            folderDownloadStatus.setZipPath(zipPath.toString().replace("\\", "/"));
-            folderDownloadStatus.setStatus("READY");
-        } catch (Exception e) {
-            folderDownloadStatus.setStatus("FAILED");
-            e.printStackTrace();
+    // folder for the synchronous zip stream, checked before any byte of the response is written
+    public Items getFolderForZip(UUID id) {
+        Items item = findItem(id)
+                .orElseThrow(() -> new NotFoundException("Item not found"));
+        if (item.getType() != ItemType.FOLDER || item.getDeletedAt() != null) {
+            throw new InvalidRequestException("Item is not folder");
         }
+        return item;
     }
 
-    private void addFolderToZip(Items folder, String parentPath, ZipOutputStream zos) throws IOException {
-        List<Items> children = itemRepo.findByParent(folder);
-
-        for (Items child : children) {
-            if (child.getType() == ItemType.FILE) {
-                Path filePath = Paths.get(child.getPath());
-                try (InputStream is = Files.newInputStream(filePath)) {
-                    ZipEntry zipEntry = new ZipEntry(parentPath + "/" + child.getName());
-                    zos.putNextEntry(zipEntry);
-
-                    byte[] bytes = new byte[1024];
-                    int length;
-                    while ((length = is.read(bytes)) != -1) {
-                        zos.write(bytes, 0, length);
-                    }
-                    zos.closeEntry();
-                }
-            } else if (child.getType() == ItemType.FOLDER) {
-                addFolderToZip(child, parentPath + "/" + child.getName(), zos);
-            }
+    // rows of a multi-item archive, overlapping selections come back once
+    public List<SubtreeItem> getSelectionForZip(List<UUID> ids) {
+        List<SubtreeItem> selection = itemRepo.findLiveSelection(new LinkedHashSet<>(ids));
+        if (selection.isEmpty()) {
+            throw new NotFoundException("Items not found");
         }
+        return selection;
     }
 
     public ResponseEntity<?> downloadFolderZip(UUID requestId) throws IOException {
-        FolderDownloadStatus status = folderDownloadMap.get(requestId);
+        FolderDownloadStatus status = folderZipJobService.getStatus(requestId);
 
         if (status == null) {
             throw new NotFoundException("RequestId not found");
@@ -316,39 +383,34 @@ public class ItemService {
             throw new InvalidRequestException("File is not ready to download");
         }
 
-        Path path = Paths.get(status.getZipPath());
+        String archiveKey = status.getZipPath();
 
-        if (Files.notExists(path)) {
-            throw new NotFoundException("Zip file not found on disk");
+        if (!storageBackend.exists(archiveKey)) {
+            throw new NotFoundException("Zip file not found in storage");
         }
 
-        InputStreamResource resource = new InputStreamResource(Files.newInputStream(path));
+        long length = storageBackend.size(archiveKey);
+        ArchiveFormat format = ArchiveFormat.of(status.getFormat());
 
         return ResponseEntity.ok()
                 .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(length)
                 .header(HttpHeaders.CONTENT_DISPOSITION,
-                        "attachment; filename=\"" + path.getFileName() + "\"")
-                .body(resource);
+                        "attachment; filename=\"" + requestId + "." + format.getExtension() + "\"")
+                .body(fileBody(archiveKey, 0, length));
     }
 
 
     public ResponseEntity<?> shareItem(UUID id, @Valid ShareFileRequest shareFileRequest) {
         Users currentUser = currentUserUtils.getCurrentUser();
 
-        Items item = itemRepo.findById(id)
+        Items item = findItem(id)
                 .orElseThrow(() -> new NotFoundException("Item not found"));
 
         boolean isOwner = item.getOwner().getId().equals(currentUser.getId());
 
-        if (!isOwner) {
-            FilePermission permission = filePermissionRepo
-                    .findByItemAndSharedToUser(item, currentUser)
-                    .orElseThrow(() ->
-                            new InvalidRequestException("You don't have permission to share this item"));
-
-            if (permission.getPermissionLevel() != PermissionLevel.EDIT) {
-                throw new InvalidRequestException("You don't have permission to share this item");
-            }
+        if (!isOwner && permissionService.resolveLevel(currentUser.getId(), item.getId()) != PermissionLevel.EDIT) {
+            throw new InvalidRequestException("You don't have permission to share this item");
         }
 
         Users shareUser = userRepo.findByEmail(shareFileRequest.getEmail())
@@ -356,90 +418,87 @@ public class ItemService {
 
         PermissionLevel permission = shareFileRequest.getPermission();
 
-        upsertPermission(item, shareUser, permission, false);
+        // one statement whatever the folder size, its content is resolved through the shared item
+        filePermissionRepo.share(item.getId(), shareUser.getId(), permission.name());
+        permissionService.onShareChanged(item.getId(), shareUser.getId());
         emailService.sendShareNotification(
                 shareUser.getEmail(),
                 item.getName(),
                 permission
         );
 
-        if (item.getType() == ItemType.FOLDER) {
-            shareFileRecursive(item, shareUser, permission);
-        }
-
         return ResponseEntity.ok("Item shared successfully");
     }
 
 
-    private void upsertPermission(
-            Items item,
-            Users shareUser,
-            PermissionLevel permission,
-            boolean inherited
-    ) {
-        Optional<FilePermission> existing =
-                filePermissionRepo.findByItemAndSharedToUser(item, shareUser);
-
-        if (existing.isPresent()) {
-            FilePermission fp = existing.get();
-            fp.setPermissionLevel(permission);
-            fp.setInherited(inherited);
-            filePermissionRepo.save(fp);
-        } else {
-            FilePermission fp = FilePermission.builder()
-                    .item(item)
-                    .sharedToUser(shareUser)
-                    .permissionLevel(permission)
-                    .inherited(inherited)
-                    .build();
-            filePermissionRepo.save(fp);
-        }
-    }
-
-private void shareFileRecursive(Items item, Users shareUser, PermissionLevel permission) {
-        List<Items> children = itemRepo.findByParent(item);
-        for (Items child : children) {
-            upsertPermission(child,shareUser,permission,true);
-            if(child.getType().equals(ItemType.FOLDER)) {
-                shareFileRecursive(child,shareUser,permission);
-            }
-        }
-}
-
     public List<SharedItemResponseDto> getSharedItemForCurrentUser() {
         Users currentUser = currentUserUtils.getCurrentUser();
 
-        return filePermissionRepo.findBySharedToUser(currentUser)
+        return filePermissionRepo.findBySharedToUserAndInheritedFalse(currentUser)
                 .stream()
                 .map(SharedItemResponseDto::from)
                 .toList();
     }
 
-    public List<ItemResponseDto> search(FileSearchRequest fileSearchRequest) {
+    // validator of the shared-with-me list, answered by one aggregate query
+    public String getSharedItemsETag() {
         Users currentUser = currentUserUtils.getCurrentUser();
+        String version = filePermissionRepo.sharedItemsVersion(currentUser.getId());
+        return ConditionalRequestUtils.weakETag("shared", currentUser.getId().toString(), version);
+    }
 
-        ItemType itemType = null;
-        String mimeType = null;
+    // validator of a search result, taken from the rows the response carries so the search
+    // runs once. the result has no order, the rows are sorted so the tag does not depend on it
+    public String getSearchETag(FileSearchRequest fileSearchRequest, List<ItemResponseDto> items) {
+        Users currentUser = currentUserUtils.getCurrentUser();
+        List<String> parts = new ArrayList<>(List.of("search", currentUser.getId().toString(), fileSearchRequest.toString()));
+        items.stream().map(ItemResponseDto::toString).sorted().forEach(parts::add);
+        return ConditionalRequestUtils.weakETag(parts.toArray(String[]::new));
+    }
 
-        if (fileSearchRequest.getType() != null) {
-            try {
-                itemType = ItemType.valueOf(fileSearchRequest.getType());
+    // everything under a folder the user can see is visible, the folder is checked once through
+    // the decision cache instead of computing every item the user can reach. items shared on
+    // their own inside a folder the user can't see still go through the full search
+    private boolean listsVisibleFolder(Users currentUser, FileSearchRequest fileSearchRequest) {
+        UUID parentId = fileSearchRequest.getParentId();
+        return parentId != null && permissionService.resolveLevel(currentUser.getId(), parentId) != null;
+    }
 
-            } catch (IllegalArgumentException e) {
-                mimeType = fileSearchRequest.getType();
-            }
+    // type is either FILE / FOLDER or a mime type
+    private static String itemTypeFilter(String type) {
+        if (type == null) {
+            return null;
         }
-        String itemTypeStr = itemType != null ? itemType.name() : null;
+        try {
+            return ItemType.valueOf(type).name();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
 
-        List<Items> items = itemRepo.search(
-                currentUser.getId(),
-                fileSearchRequest.getQ(),
-                mimeType,
-                itemTypeStr,
-                fileSearchRequest.getParentId(),
-                fileSearchRequest.getFromSize(),
-                fileSearchRequest.getToSize()
-        );
+    public List<ItemResponseDto> search(FileSearchRequest fileSearchRequest) {
+        Users currentUser = currentUserUtils.getCurrentUser();
+
+        String itemTypeStr = itemTypeFilter(fileSearchRequest.getType());
+        String mimeType = itemTypeStr == null ? fileSearchRequest.getType() : null;
+
+        List<Items> items = listsVisibleFolder(currentUser, fileSearchRequest)
+                ? itemRepo.listChildren(
+                        fileSearchRequest.getParentId(),
+                        fileSearchRequest.getQ(),
+                        mimeType,
+                        itemTypeStr,
+                        fileSearchRequest.getFromSize(),
+                        fileSearchRequest.getToSize())
+                : itemRepo.search(
+                        currentUser.getId(),
+                        fileSearchRequest.getQ(),
+                        mimeType,
+                        itemTypeStr,
+                        fileSearchRequest.getParentId(),
+                        fileSearchRequest.getFromSize(),
+                        fileSearchRequest.getToSize()
+                );
 
         System.out.println("So luong item tim duoc " + items.size());
         return items.stream().map(ItemResponseDto::from).toList();
@@ -459,7 +518,7 @@ private void shareFileRecursive(Items item, Users shareUser, PermissionLevel per
 @Transactional
     public void softDelete(UUID id) {
         Users currentUser = currentUserUtils.getCurrentUser();
-        Items item = itemRepo.findById(id).orElseThrow(() -> new InvalidRequestException("Item not found"));
+        Items item = findItem(id).orElseThrow(() -> new InvalidRequestException("Item not found"));
         checkEditPermission(item,currentUser);
         item.setDeletedAt(Instant.now());
         itemRepo.save(item);
@@ -8,13 +8,14 @@ import com.example.mini_drive_storage.enums.PermissionLevel;
 import com.example.mini_drive_storage.repo.FilePermissionRepo;
 import com.example.mini_drive_storage.repo.ItemRepo;
 import com.example.mini_drive_storage.repo.UserRepo;
+import com.example.mini_drive_storage.storage.StorageBackend;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.*;
 
@@ -26,6 +27,7 @@ public class MockDataService {
     private final ItemRepo itemRepo;
     private final FilePermissionRepo filePermissionRepo;
     private final PasswordEncoder passwordEncoder;
+    private final StorageBackend storageBackend;
 
     private static final int USER_COUNT = 10;
     private static final int TOTAL_FILE_COUNT = 10_000;
@@ -70,12 +72,10 @@ public class MockDataService {
 
     private String createFakeFileOnDisk(Users user) {
         try {
-            Path path = Path.of("mock-storage", user.getId().toString());
-            Files.createDirectories(path);
-
-            Path file = path.resolve(UUID.randomUUID().toString() + ".txt");
-            Files.writeString(file,"mock data");
-            return file.toString();
+            String key = "mock-storage/" + user.getId() + "/" + UUID.randomUUID() + ".txt";
+            byte[] content = "mock data".getBytes(StandardCharsets.UTF_8);
+            storageBackend.put(key, new ByteArrayInputStream(content), content.length);
+            return key;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
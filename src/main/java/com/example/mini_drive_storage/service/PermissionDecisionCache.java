@@ -0,0 +1,147 @@
+package com.example.mini_drive_storage.service;
+
+import com.example.mini_drive_storage.dto.EffectiveLevel;
+import com.example.mini_drive_storage.entity.PermissionChange;
+import com.example.mini_drive_storage.enums.PermissionLevel;
+import com.example.mini_drive_storage.repo.PermissionChangeRepo;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// Resolved permission levels per (user, item), so hot items are authorized without a query.
+// Each entry keeps the folder chain it was resolved on: a share drops exactly the decisions
+// made through the item it touched. Shares are also written to permission_changes, which every
+// node polls, so a change made on another node is seen within permission.cache.poll-interval-ms.
+// Bounded by permission.cache.max-size, the TTL is only a backstop for a node that cannot poll.
+// Hits and misses are published as the cache.gets metric of permissionDecisions.
+@Component
+public class PermissionDecisionCache {
+    private final Cache<Key, Decision> cache;
+    private final PermissionChangeRepo changeRepo;
+    private final long pollWindowSeconds;
+
+    // changes of the poll window already evicted here, by id
+    private Set<Long> applied = Set.of();
+    private Instant lastPolledAt = Instant.now();
+
+    // bumped by every eviction, a decision loaded across one is not kept
+    private final AtomicLong generation = new AtomicLong();
+
+    public PermissionDecisionCache(MeterRegistry meterRegistry,
+                                   PermissionChangeRepo changeRepo,
+                                   @Value("${permission.cache.max-size:100000}") long maxSize,
+                                   @Value("${permission.cache.ttl-seconds:60}") long ttlSeconds,
+                                   @Value("${permission.cache.poll-window-seconds:30}") long pollWindowSeconds) {
+        this.changeRepo = changeRepo;
+        this.pollWindowSeconds = pollWindowSeconds;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "permissionDecisions");
+    }
+
+    private record Key(UUID userId, UUID itemId) {
+    }
+
+    private record Decision(PermissionLevel level, Set<UUID> ancestors) {
+        static Decision of(UUID itemId, EffectiveLevel row) {
+            if (row == null || row.getAncestors() == null) {
+                // no such item
+                return new Decision(null, Set.of(itemId));
+            }
+            Set<UUID> ancestors = Arrays.stream(row.getAncestors().split(","))
+                    .map(UUID::fromString)
+                    .collect(Collectors.toUnmodifiableSet());
+            PermissionLevel level = row.getLevel() != null ? PermissionLevel.valueOf(row.getLevel()) : null;
+            return new Decision(level, ancestors);
+        }
+    }
+
+    public PermissionLevel get(UUID userId, UUID itemId, Supplier<EffectiveLevel> loader) {
+        Key key = new Key(userId, itemId);
+        Decision cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached.level();
+        }
+        long loadedAt = generation.get();
+        Decision decision = Decision.of(itemId, loader.get());
+        cache.put(key, decision);
+        // an eviction ran while the query did, the row read may be the one it was about
+        if (generation.get() != loadedAt) {
+            cache.invalidate(key);
+        }
+        return decision.level();
+    }
+
+    // the share of an item to a user changed, only that user's decisions on or under it go.
+    // the other nodes read it back from permission_changes
+    public void evictShare(UUID itemId, UUID userId) {
+        changeRepo.record(itemId, userId);
+        afterCommit(() -> evict(itemId, userId));
+    }
+
+    // Applies the shares changed on any node since the last poll. The window overlaps earlier
+    // polls because a row is stamped when its transaction starts and may show up later than a
+    // newer one; ids already applied are skipped so a decision is dropped once per change.
+    // A node that could not poll for the whole window may have missed rows, it starts over.
+    public synchronized void pollChanges() {
+        Instant startedAt = Instant.now();
+        List<PermissionChange> changes = changeRepo.findRecent(pollWindowSeconds);
+        if (Duration.between(lastPolledAt, startedAt).getSeconds() >= pollWindowSeconds) {
+            generation.incrementAndGet();
+            cache.invalidateAll();
+        }
+        Set<Long> seen = new HashSet<>();
+        for (PermissionChange change : changes) {
+            seen.add(change.getId());
+            if (!applied.contains(change.getId())) {
+                evict(change.getItemId(), change.getUserId());
+            }
+        }
+        applied = seen;
+        lastPolledAt = startedAt;
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    private void evict(UUID itemId, UUID userId) {
+        generation.incrementAndGet();
+        cache.asMap().entrySet().removeIf(entry ->
+                entry.getKey().userId().equals(userId) && entry.getValue().ancestors().contains(itemId));
+    }
+
+    // inside a transaction the old level still holds until it commits, and a decision read
+    // before then would be cached stale
+    private static void afterCommit(Runnable evict) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict.run();
+                }
+            });
+        } else {
+            evict.run();
+        }
+    }
+}
@@ -1,4 +1,5 @@
 package com.example.mini_drive_storage.service;
+import com.example.mini_drive_storage.entity.Items;
 import com.example.mini_drive_storage.entity.Users;
 import com.example.mini_drive_storage.enums.PermissionLevel;
 import com.example.mini_drive_storage.repo.FilePermissionRepo;
@@ -8,6 +9,10 @@ import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 @RequiredArgsConstructor
@@ -16,22 +21,57 @@ public class PermissionService {
     private final ItemRepo itemRepo;
     private final FilePermissionRepo filePermissionRepo;
     private final CurrentUserUtils currentUserUtils;
+    private final PermissionDecisionCache decisionCache;
+    private final AuthorizationContext authorizationContext;
 
-    public boolean canEditItem(UUID itemId) {
-        Users currentUser = currentUserUtils.getCurrentUser();
-        if (itemRepo.existsByIdAndOwnerId(itemId,currentUser.getId())){
-            return true;
+    // permissions are stored on the shared item only, the items under it are resolved here
+    // by walking up their folders, see FilePermissionRepo.findEffectiveLevel
+    public PermissionLevel resolveLevel(UUID userId, UUID itemId) {
+        Optional<PermissionLevel> granted = authorizationContext.level(userId, itemId);
+        if (granted.isPresent()) {
+            return granted.get();
         }
-        return filePermissionRepo.existsByItemIdAndSharedToUserIdAndPermissionLevel(
-                itemId, currentUser.getId(), PermissionLevel.EDIT
-        );
+        return decisionCache.get(userId, itemId, () -> filePermissionRepo.findEffectiveLevel(userId, itemId));
+    }
+
+    // to be called by whatever changes a share. deleting an item needs nothing here,
+    // the levels do not depend on the trash
+    public void onShareChanged(UUID itemId, UUID userId) {
+        decisionCache.evictShare(itemId, userId);
     }
+
+    public boolean canEditItem(UUID itemId) {
+        return authorize(itemId) == PermissionLevel.EDIT;
+    }
+
     public boolean canViewItem(UUID itemId) {
+        return authorize(itemId) != null;
+    }
+
+    // the endpoint needs the item anyway: it is loaded here, the owner is answered from it and
+    // both go into the request's AuthorizationContext for the service to reuse
+    private PermissionLevel authorize(UUID itemId) {
         Users currentUser = currentUserUtils.getCurrentUser();
-        if (itemRepo.existsByIdAndOwnerId(itemId,currentUser.getId())){
-            return true;
+        Items item = itemRepo.findById(itemId).orElse(null);
+        if (item == null) {
+            return null;
+        }
+        PermissionLevel level = item.getOwner().getId().equals(currentUser.getId())
+                ? PermissionLevel.EDIT
+                : resolveLevel(currentUser.getId(), itemId);
+        if (level != null) {
+            authorizationContext.record(currentUser.getId(), item, level);
+        }
+        return level;
+    }
+
+    // one query for a whole selection instead of one check per item
+    public boolean canViewItems(Collection<UUID> itemIds) {
+        if (itemIds == null || itemIds.isEmpty()) {
+            return false;
         }
-        return filePermissionRepo.existsByItemIdAndSharedToUserId(
-                itemId, currentUser.getId()
-        );    }
+        Set<UUID> distinctIds = new HashSet<>(itemIds);
+        Users currentUser = currentUserUtils.getCurrentUser();
+        return itemRepo.countViewable(currentUser.getId(), distinctIds) == distinctIds.size();
+    }
 }
@@ -0,0 +1,51 @@
+package com.example.mini_drive_storage.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Physical layout of the storage backend, independent of the logical folder tree.
+// Blobs are spread over hex prefix directories taken from their hash:
+// blobs/ab/cd/abcd...  (2 levels = 65536 directories, ~150 files each at 10M blobs)
+@Component
+public class StorageLayout {
+    private static final String BLOB_ROOT = "blobs";
+    private static final String ARCHIVE_ROOT = "archives";
+
+    private final int fanoutLevels;
+    private final Path scratchDir;
+
+    public StorageLayout(@Value("${storage.fanout.levels:2}") int fanoutLevels,
+                         @Value("${storage.scratch-dir:storage/tmp}") String scratchDir) {
+        if (fanoutLevels < 0 || fanoutLevels > 3) {
+            throw new IllegalArgumentException("storage.fanout.levels must be between 0 and 3");
+        }
+        this.fanoutLevels = fanoutLevels;
+        this.scratchDir = Paths.get(scratchDir);
+    }
+
+    public String blobKey(String hash) {
+        StringBuilder key = new StringBuilder(BLOB_ROOT).append('/');
+        for (int level = 0; level < fanoutLevels; level++) {
+            key.append(hash, level * 2, level * 2 + 2).append('/');
+        }
+        return key.append(hash).toString();
+    }
+
+    // built folder archives are named after the fingerprint of the folder content
+    public String archiveKey(String fingerprint, String extension) {
+        return ARCHIVE_ROOT + "/" + fingerprint + "." + extension;
+    }
+
+    // local disk for files that are still being written, whatever the backend is
+    public Path tempDir() {
+        return scratchDir;
+    }
+
+    // part files of resumable uploads, next to tempDir so committing one is a rename
+    public Path uploadsDir() {
+        return scratchDir.resolve("uploads");
+    }
+}
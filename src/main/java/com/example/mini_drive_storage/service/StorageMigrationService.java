@@ -0,0 +1,122 @@
+package com.example.mini_drive_storage.service;
+
+import com.example.mini_drive_storage.entity.Blob;
+import com.example.mini_drive_storage.entity.Items;
+import com.example.mini_drive_storage.repo.BlobRepo;
+import com.example.mini_drive_storage.repo.ItemRepo;
+import com.example.mini_drive_storage.storage.ContentCodec;
+import com.example.mini_drive_storage.storage.StorageBackend;
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+// Moves existing files into the sharded layout, one batch per transaction.
+// New locations are created by hard link (or copy) before the rows are rewritten,
+// old objects are only deleted by the caller once the batch is committed.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class StorageMigrationService {
+    public static final UUID FIRST_ITEM_ID = new UUID(0L, 0L);
+
+    private final BlobRepo blobRepo;
+    private final ItemRepo itemRepo;
+    private final BlobStoreService blobStoreService;
+    private final StorageLayout storageLayout;
+    private final StorageBackend storageBackend;
+
+    public record Batch(String lastKey, int scanned, int migrated, List<String> obsoleteKeys) {
+    }
+
+    // blobs written flat, with another fanout setting or with a storage/ prefixed path
+    @Transactional
+    public Batch relocateBlobs(String afterHash, int batchSize) {
+        List<Blob> blobs = blobRepo.findByHashGreaterThanOrderByHash(afterHash, PageRequest.of(0, batchSize));
+        List<String> obsoleteKeys = new ArrayList<>();
+        int migrated = 0;
+        for (Blob blob : blobs) {
+            String current = blob.getPath();
+            String target = storageLayout.blobKey(blob.getHash());
+            if (ContentCodec.encodingOf(current) != null) {
+                target = ContentCodec.gzipKey(target);
+            }
+            if (current.equals(target)) {
+                continue;
+            }
+            Optional<Path> currentFile = storageBackend.localPath(current);
+            Optional<Path> targetFile = storageBackend.localPath(target);
+            boolean sameObject = currentFile.isPresent() && targetFile.isPresent()
+                    && currentFile.get().toAbsolutePath().normalize().equals(targetFile.get().toAbsolutePath().normalize());
+            if (!sameObject) {
+                try {
+                    copy(current, target, blob.getStoredSize() != null ? blob.getStoredSize() : blob.getSize());
+                } catch (IOException e) {
+                    log.error("Failed to relocate blob " + blob.getHash() + ": " + e.getMessage());
+                    continue;
+                }
+                obsoleteKeys.add(current);
+            }
+            blob.setPath(target);
+            itemRepo.updatePathByContentHash(blob.getHash(), target);
+            migrated++;
+        }
+        String lastKey = blobs.isEmpty() ? null : blobs.get(blobs.size() - 1).getHash();
+        return new Batch(lastKey, blobs.size(), migrated, obsoleteKeys);
+    }
+
+    // files uploaded before the blob store (storage/<parentId>/<uuid>_<name>, mock-storage, ...)
+    @Transactional
+    public Batch importLegacyFiles(UUID afterId, int batchSize) {
+        List<Items> items = itemRepo.findLegacyFilesAfter(afterId, PageRequest.of(0, batchSize));
+        List<String> obsoleteKeys = new ArrayList<>();
+        List<Items> migratedItems = new ArrayList<>();
+        for (Items item : items) {
+            String current = item.getPath();
+            if (!exists(current)) {
+                log.warn("File of item " + item.getId() + " not found in storage, skip");
+                continue;
+            }
+            Blob blob = blobStoreService.importFile(current, item.getMimeType());
+            item.setPath(blob.getPath());
+            item.setContentHash(blob.getHash());
+            migratedItems.add(item);
+            obsoleteKeys.add(current);
+        }
+        itemRepo.saveAll(migratedItems);
+        String lastKey = items.isEmpty() ? null : items.get(items.size() - 1).getId().toString();
+        return new Batch(lastKey, items.size(), migratedItems.size(), obsoleteKeys);
+    }
+
+    private void copy(String source, String target, long size) throws IOException {
+        Optional<Path> sourceFile = storageBackend.localPath(source);
+        Optional<Path> targetFile = storageBackend.localPath(target);
+        if (sourceFile.isPresent() && targetFile.isPresent()) {
+            Files.createDirectories(targetFile.get().getParent());
+            BlobStoreService.linkOrCopy(sourceFile.get(), targetFile.get());
+            return;
+        }
+        try (InputStream in = storageBackend.get(source)) {
+            storageBackend.put(target, in, size);
+        }
+    }
+
+    private boolean exists(String key) {
+        try {
+            return storageBackend.exists(key);
+        } catch (IOException e) {
+            log.error("Failed to check " + key + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
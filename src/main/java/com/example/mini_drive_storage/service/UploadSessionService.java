@@ -0,0 +1,269 @@
+package com.example.mini_drive_storage.service;
+
+import com.example.mini_drive_storage.dto.CreateUploadSessionRequest;
+import com.example.mini_drive_storage.dto.ItemResponseDto;
+import com.example.mini_drive_storage.dto.UploadSessionResponse;
+import com.example.mini_drive_storage.entity.Blob;
+import com.example.mini_drive_storage.entity.Items;
+import com.example.mini_drive_storage.entity.UploadSession;
+import com.example.mini_drive_storage.entity.UploadSessionChunk;
+import com.example.mini_drive_storage.entity.Users;
+import com.example.mini_drive_storage.exception.InvalidRequestException;
+import com.example.mini_drive_storage.exception.NotFoundException;
+import com.example.mini_drive_storage.exception.PermissionDeniedException;
+import com.example.mini_drive_storage.repo.UploadSessionChunkRepo;
+import com.example.mini_drive_storage.repo.UploadSessionRepo;
+import com.example.mini_drive_storage.utils.CurrentUserUtils;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+
+// Resumable uploads: the client creates a session, PUTs numbered chunks in any order
+// (also in parallel), asks which chunks are stored and finally commits.
+// Chunks are written by offset into one preallocated file, so commit needs no concatenation.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UploadSessionService {
+    private static final long MIN_CHUNK_SIZE = 256 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final UploadSessionRepo uploadSessionRepo;
+    private final UploadSessionChunkRepo uploadSessionChunkRepo;
+    private final ItemService itemService;
+    private final BlobStoreService blobStoreService;
+    private final CurrentUserUtils currentUserUtils;
+    private final StorageLayout storageLayout;
+
+    @Value("${upload.session.chunk-size:8388608}")
+    private long defaultChunkSize;
+
+    @Value("${upload.session.ttl-hours:24}")
+    private int ttlHours;
+
+    // the part file is allocated at its full size when the session is created
+    @Value("${upload.session.max-size:10737418240}")
+    private long maxSize;
+
+    @PostConstruct
+    public void initStorage() {
+        try {
+            Files.createDirectories(storageLayout.uploadsDir());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not initialize upload storage", e);
+        }
+    }
+
+    public UploadSessionResponse createSession(CreateUploadSessionRequest request) {
+        if (request.getSize() > maxSize) {
+            throw new InvalidRequestException("File is larger than " + maxSize + " bytes");
+        }
+        Users currentUser = currentUserUtils.getCurrentUser();
+        Items parent = itemService.resolveUploadParent(request.getParentId(), currentUser);
+
+        long chunkSize = request.getChunkSize() != null ? request.getChunkSize() : defaultChunkSize;
+        if (chunkSize < MIN_CHUNK_SIZE) {
+            throw new InvalidRequestException("Chunk size must be at least " + MIN_CHUNK_SIZE + " bytes");
+        }
+        long chunkCount = (request.getSize() + chunkSize - 1) / chunkSize;
+        if (chunkCount > Integer.MAX_VALUE) {
+            throw new InvalidRequestException("Too many chunks, use a bigger chunk size");
+        }
+
+        Path tempPath = storageLayout.uploadsDir().resolve(UUID.randomUUID() + ".part");
+        // sparse file of the final size, every chunk goes straight to its own offset
+        try (RandomAccessFile file = new RandomAccessFile(tempPath.toFile(), "rw")) {
+            file.setLength(request.getSize());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create upload session", e);
+        }
+
+        UploadSession session = UploadSession.builder()
+                .name(request.getName())
+                .mimeType(request.getMimeType())
+                .totalSize(request.getSize())
+                .chunkSize(chunkSize)
+                .chunkCount((int) chunkCount)
+                .tempPath(tempPath.toString())
+                .parent(parent)
+                .owner(currentUser)
+                .expiresAt(Instant.now().plus(ttlHours, ChronoUnit.HOURS))
+                .build();
+        UploadSession saved = uploadSessionRepo.save(session);
+        return UploadSessionResponse.from(saved, List.of());
+    }
+
+    public UploadSessionResponse getSession(UUID sessionId) {
+        UploadSession session = loadOwnSession(sessionId, currentUserUtils.getCurrentUser());
+        return UploadSessionResponse.from(session, uploadSessionChunkRepo.findChunkIndexes(sessionId));
+    }
+
+    public void writeChunk(UUID sessionId, int index, InputStream content) {
+        UploadSession session = loadOwnSession(sessionId, currentUserUtils.getCurrentUser());
+        if (index < 0 || index >= session.getChunkCount()) {
+            throw new InvalidRequestException("Chunk index out of range");
+        }
+        // counted until the chunk is recorded, so a commit never hashes a file still being written
+        if (uploadSessionRepo.beginWrite(sessionId) == 0) {
+            throw new InvalidRequestException("Upload is being committed");
+        }
+        try {
+            writeAndRecord(session, index, content);
+        } finally {
+            uploadSessionRepo.endWrite(sessionId);
+        }
+    }
+
+    private void writeAndRecord(UploadSession session, int index, InputStream content) {
+        UUID sessionId = session.getId();
+        long offset = index * session.getChunkSize();
+        long expectedLength = Math.min(session.getChunkSize(), session.getTotalSize() - offset);
+
+        long written;
+        try (FileChannel channel = FileChannel.open(Paths.get(session.getTempPath()), StandardOpenOption.WRITE)) {
+            written = writeAt(channel, Channels.newChannel(content), offset, expectedLength);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write chunk", e);
+        }
+        if (written != expectedLength) {
+            // nothing is recorded, the client simply retries this chunk
+            throw new InvalidRequestException("Chunk " + index + " must be " + expectedLength + " bytes");
+        }
+
+        if (uploadSessionChunkRepo.existsBySessionIdAndChunkIndex(sessionId, index)) {
+            return;
+        }
+        try {
+            uploadSessionChunkRepo.save(UploadSessionChunk.builder()
+                    .session(session)
+                    .chunkIndex(index)
+                    .build());
+        } catch (DataIntegrityViolationException e) {
+            // same chunk retried concurrently, it is stored either way
+            log.debug("Chunk {} of session {} already recorded", index, sessionId);
+        }
+    }
+
+    public ItemResponseDto commit(UUID sessionId) {
+        Users currentUser = currentUserUtils.getCurrentUser();
+        UploadSession session = loadOwnSession(sessionId, currentUser);
+        if (uploadSessionChunkRepo.countBySessionId(sessionId) != session.getChunkCount()) {
+            throw new InvalidRequestException("Upload is not complete");
+        }
+        // permission may have changed since the session was created
+        UUID parentId = session.getParent() != null ? session.getParent().getId() : null;
+        Items parent = itemService.resolveUploadParent(parentId, currentUser);
+
+        if (uploadSessionRepo.markCommitting(sessionId, Instant.now()) == 0) {
+            throw new InvalidRequestException("Upload is already being committed or still receiving chunks");
+        }
+
+        Path tempPath = Paths.get(session.getTempPath());
+        Blob blob;
+        try {
+            blob = blobStoreService.adopt(tempPath, session.getMimeType());
+        } catch (RuntimeException e) {
+            // a failed read leaves the part file, the client can commit again
+            if (Files.exists(tempPath)) {
+                uploadSessionRepo.clearCommitting(sessionId);
+            } else {
+                deleteSession(session);
+            }
+            throw e;
+        }
+        Items savedItem;
+        try {
+            savedItem = itemService.createFileItem(session.getName(), session.getMimeType(), blob, parent, currentUser);
+        } catch (RuntimeException e) {
+            // the part file is in the blob store now, without an item nothing may hold its reference
+            blobStoreService.release(blob.getHash());
+            deleteSession(session);
+            throw e;
+        }
+
+        uploadSessionChunkRepo.deleteBySession(session);
+        uploadSessionRepo.delete(session);
+        return ItemResponseDto.from(savedItem);
+    }
+
+    public void abort(UUID sessionId) {
+        UploadSession session = loadOwnSession(sessionId, currentUserUtils.getCurrentUser());
+        if (uploadSessionRepo.markDeleting(sessionId, Instant.now(), Instant.EPOCH) == 0) {
+            throw new InvalidRequestException("Upload is being committed");
+        }
+        deleteSession(session);
+    }
+
+    // expired session of the cleanup, skipped while a commit holds it. a commit that has
+    // run for a whole ttl is taken as dead
+    public boolean deleteExpiredSession(UploadSession session) {
+        Instant now = Instant.now();
+        if (uploadSessionRepo.markDeleting(session.getId(), now, now.minus(ttlHours, ChronoUnit.HOURS)) == 0) {
+            return false;
+        }
+        deleteSession(session);
+        return true;
+    }
+
+    public void deleteSession(UploadSession session) {
+        try {
+            Files.deleteIfExists(Paths.get(session.getTempPath()));
+        } catch (IOException e) {
+            log.error("Failed to delete file " + e.getMessage());
+        }
+        uploadSessionChunkRepo.deleteBySession(session);
+        uploadSessionRepo.delete(session);
+    }
+
+    public List<UploadSession> findExpiredSessions() {
+        return uploadSessionRepo.findByExpiresAtBefore(Instant.now());
+    }
+
+    private UploadSession loadOwnSession(UUID sessionId, Users currentUser) {
+        UploadSession session = uploadSessionRepo.findById(sessionId)
+                .orElseThrow(() -> new NotFoundException("Upload session not found"));
+        if (!session.getOwner().getId().equals(currentUser.getId())) {
+            throw new PermissionDeniedException("Upload session belongs to another user");
+        }
+        if (session.getExpiresAt().isBefore(Instant.now())) {
+            throw new InvalidRequestException("Upload session expired");
+        }
+        return session;
+    }
+
+    // positioned writes, so parallel chunks never move a shared file pointer
+    private long writeAt(FileChannel channel, ReadableByteChannel source, long offset, long maxLength) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long written = 0;
+        while (source.read(buffer) != -1) {
+            buffer.flip();
+            if (written + buffer.remaining() > maxLength) {
+                return written + buffer.remaining();
+            }
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer, offset + written);
+            }
+            buffer.clear();
+        }
+        return written;
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.mini_drive_storage.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+
+// Which uploads are compressed at rest. Only listed mime types are compressed, so images,
+// video and archives that are already compressed are stored as they are.
+@Component
+public class CompressionPolicy {
+    private final boolean enabled;
+    private final List<String> mimeTypes;
+    private final long minSize;
+
+    public CompressionPolicy(@Value("${storage.compression.enabled:true}") boolean enabled,
+                             @Value("${storage.compression.mime-types:text/*,application/json,application/xml,application/javascript,application/x-ndjson,image/svg+xml}") List<String> mimeTypes,
+                             @Value("${storage.compression.min-size:1024}") long minSize) {
+        this.enabled = enabled;
+        this.mimeTypes = mimeTypes.stream().map(type -> type.trim().toLowerCase(Locale.ROOT)).toList();
+        this.minSize = minSize;
+    }
+
+    public boolean shouldCompress(String mimeType, long size) {
+        return enabled && size >= minSize && matches(mimeType, mimeTypes);
+    }
+
+    // patterns are lower case, either exact types or "type/*"
+    public static boolean matches(String mimeType, List<String> patterns) {
+        if (mimeType == null) {
+            return false;
+        }
+        // drop parameters like "; charset=utf-8"
+        String type = mimeType.split(";")[0].trim().toLowerCase(Locale.ROOT);
+        for (String pattern : patterns) {
+            if (pattern.endsWith("/*")
+                    ? type.startsWith(pattern.substring(0, pattern.length() - 1))
+                    : type.equals(pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
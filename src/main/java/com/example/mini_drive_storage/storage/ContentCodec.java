@@ -0,0 +1,63 @@
+package com.example.mini_drive_storage.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+// Encoding of stored blobs. A compressed blob is stored under its layout key with a
+// ".gz" suffix, so the encoding is known from Items.path without another query.
+public final class ContentCodec {
+    public static final String GZIP = "gzip";
+    private static final String BLOB_PREFIX = "blobs/";
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ContentCodec() {
+    }
+
+    public static String gzipKey(String key) {
+        return key + GZIP_SUFFIX;
+    }
+
+    // only layout keys carry an encoding, legacy paths are user file names and always raw
+    public static String encodingOf(String key) {
+        if (key != null && key.startsWith(BLOB_PREFIX) && key.endsWith(GZIP_SUFFIX)) {
+            return GZIP;
+        }
+        return null;
+    }
+
+    // logical content of a stored object
+    public static InputStream decode(String key, InputStream stored) throws IOException {
+        if (GZIP.equals(encodingOf(key))) {
+            return new GZIPInputStream(stored, BUFFER_SIZE);
+        }
+        return stored;
+    }
+
+    // true when the Accept-Encoding header allows the encoding (q=0 means refused)
+    public static boolean accepts(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null || encoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.trim().split(";");
+            String coding = tokens[0].trim();
+            if (!coding.equalsIgnoreCase(encoding) && !coding.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
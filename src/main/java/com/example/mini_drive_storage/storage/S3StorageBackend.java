@@ -0,0 +1,233 @@
+package com.example.mini_drive_storage.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+// S3 compatible object storage (AWS S3, MinIO, Ceph RGW, ...) over plain HTTP with
+// path-style addressing: <endpoint>/<bucket>/<key>. Requests are signed with SigV4.
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "storage.backend", havingValue = "s3")
+public class S3StorageBackend implements StorageBackend {
+    static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private final URI endpoint;
+    private final String region;
+    private final String bucket;
+    private final String accessKey;
+    private final String secretKey;
+    private final HttpClient httpClient;
+
+    public S3StorageBackend(@Value("${storage.s3.endpoint}") String endpoint,
+                            @Value("${storage.s3.region:us-east-1}") String region,
+                            @Value("${storage.s3.bucket}") String bucket,
+                            @Value("${storage.s3.access-key}") String accessKey,
+                            @Value("${storage.s3.secret-key}") String secretKey) {
+        this.endpoint = URI.create(endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint);
+        this.region = region;
+        this.bucket = bucket;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        HttpResponse<Void> response = send(request("HEAD", key, Map.of()).method("HEAD", HttpRequest.BodyPublishers.noBody()),
+                HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == 404) {
+            return false;
+        }
+        checkStatus(response, key);
+        return true;
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        HttpResponse<Void> response = send(request("HEAD", key, Map.of()).method("HEAD", HttpRequest.BodyPublishers.noBody()),
+                HttpResponse.BodyHandlers.discarding());
+        checkStatus(response, key);
+        return response.headers().firstValueAsLong("Content-Length")
+                .orElseThrow(() -> new IOException("No Content-Length for " + key));
+    }
+
+    @Override
+    public void put(String key, InputStream content, long length) throws IOException {
+        // the payload is streamed once, so it is sent unsigned rather than hashed up front
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.fromPublisher(
+                HttpRequest.BodyPublishers.ofInputStream(() -> content), length);
+        HttpResponse<String> response = send(request("PUT", key, Map.of()).PUT(body), HttpResponse.BodyHandlers.ofString());
+        checkStatus(response, key);
+    }
+
+    @Override
+    public void putFile(String key, Path file) throws IOException {
+        HttpResponse<String> response = send(request("PUT", key, Map.of()).PUT(HttpRequest.BodyPublishers.ofFile(file)),
+                HttpResponse.BodyHandlers.ofString());
+        checkStatus(response, key);
+        Files.deleteIfExists(file);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return body(send(request("GET", key, Map.of()).GET(), HttpResponse.BodyHandlers.ofInputStream()), key);
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) throws IOException {
+        if (length == 0) {
+            return InputStream.nullInputStream();
+        }
+        String range = "bytes=" + offset + "-" + (offset + length - 1);
+        return body(send(request("GET", key, Map.of("range", range)).GET(), HttpResponse.BodyHandlers.ofInputStream()), key);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        HttpResponse<String> response = send(request("DELETE", key, Map.of()).DELETE(), HttpResponse.BodyHandlers.ofString());
+        // deleting a missing object is not an error, same as Files.deleteIfExists
+        if (response.statusCode() != 404) {
+            checkStatus(response, key);
+        }
+    }
+
+    private HttpRequest.Builder request(String method, String key, Map<String, String> extraHeaders) {
+        String canonicalUri = "/" + encodePath(bucket) + "/" + encodePath(key);
+        String host = endpoint.getPort() == -1 ? endpoint.getHost() : endpoint.getHost() + ":" + endpoint.getPort();
+        String payloadHash = "GET".equals(method) || "HEAD".equals(method) || "DELETE".equals(method)
+                ? EMPTY_SHA256 : UNSIGNED_PAYLOAD;
+
+        TreeMap<String, String> headers = new TreeMap<>(extraHeaders);
+        headers.put("host", host);
+        headers.put("x-amz-content-sha256", payloadHash);
+        headers.put("x-amz-date", AMZ_DATE.format(Instant.now()));
+
+        String authorization = authorization(method, canonicalUri, "", headers, payloadHash,
+                region, accessKey, secretKey);
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(endpoint + canonicalUri))
+                .timeout(Duration.ofMinutes(5))
+                .header("Authorization", authorization);
+        // host is set by the client itself
+        headers.forEach((name, value) -> {
+            if (!"host".equals(name)) {
+                builder.header(name, value);
+            }
+        });
+        return builder;
+    }
+
+    // builds the SigV4 Authorization header, headers must be lower-case and contain x-amz-date
+    public static String authorization(String method, String canonicalUri, String canonicalQuery,
+                                TreeMap<String, String> headers, String payloadHash,
+                                String region, String accessKey, String secretKey) {
+        String amzDate = headers.get("x-amz-date");
+        String date = amzDate.substring(0, 8);
+        String scope = date + "/" + region + "/s3/aws4_request";
+
+        String canonicalHeaders = headers.entrySet().stream()
+                .map(e -> e.getKey() + ":" + e.getValue().trim() + "\n")
+                .collect(Collectors.joining());
+        String signedHeaders = String.join(";", headers.keySet());
+        String canonicalRequest = method + "\n" + canonicalUri + "\n" + canonicalQuery + "\n"
+                + canonicalHeaders + "\n" + signedHeaders + "\n" + payloadHash;
+        String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n" + sha256Hex(canonicalRequest);
+
+        byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+        key = hmac(key, region);
+        key = hmac(key, "s3");
+        key = hmac(key, "aws4_request");
+        String signature = HexFormat.of().formatHex(hmac(key, stringToSign));
+
+        return "AWS4-HMAC-SHA256 Credential=" + accessKey + "/" + scope
+                + ",SignedHeaders=" + signedHeaders + ",Signature=" + signature;
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest.Builder request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return httpClient.send(request.build(), handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while talking to object storage", e);
+        }
+    }
+
+    private InputStream body(HttpResponse<InputStream> response, String key) throws IOException {
+        if (response.statusCode() / 100 != 2) {
+            response.body().close();
+        }
+        checkStatus(response, key);
+        return response.body();
+    }
+
+    private void checkStatus(HttpResponse<?> response, String key) throws IOException {
+        int status = response.statusCode();
+        if (status == 404) {
+            throw new FileNotFoundException(key);
+        }
+        if (status / 100 != 2) {
+            log.warn("Object storage returned {} for {}", status, key);
+            throw new IOException("Object storage returned " + status + " for " + key);
+        }
+    }
+
+    // RFC 3986 encoding of every path segment, '/' between segments is kept
+    private static String encodePath(String path) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || c == '/') {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(String.format("%02X", b & 0xff));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static String sha256Hex(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
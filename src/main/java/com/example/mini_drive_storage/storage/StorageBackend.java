@@ -0,0 +1,31 @@
+package com.example.mini_drive_storage.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+
+// Where file content physically lives. Keys are relative, '/' separated names
+// (blobs/ab/cd/<hash>, archives/<id>.zip, ...), the database only stores keys.
+public interface StorageBackend {
+    boolean exists(String key) throws IOException;
+
+    long size(String key) throws IOException;
+
+    // streams the content in, readers never see a partially written object
+    void put(String key, InputStream content, long length) throws IOException;
+
+    // takes ownership of a local temp file, it no longer exists afterwards
+    void putFile(String key, Path file) throws IOException;
+
+    InputStream get(String key) throws IOException;
+
+    InputStream getRange(String key, long offset, long length) throws IOException;
+
+    void delete(String key) throws IOException;
+
+    // file on the local disk for this key, when the backend has one (used for zero-copy reads)
+    default Optional<Path> localPath(String key) {
+        return Optional.empty();
+    }
+}
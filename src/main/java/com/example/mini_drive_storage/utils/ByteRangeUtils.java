@@ -0,0 +1,144 @@
+package com.example.mini_drive_storage.utils;
+
+import org.springframework.http.HttpRange;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+// Range / If-Range handling for file downloads (RFC 9110 section 14).
+// Every range is read on its own from the storage backend, nothing is skipped through.
+public final class ByteRangeUtils {
+
+    private ByteRangeUtils() {
+    }
+
+    public record Segment(long start, long end) {
+        public long length() {
+            return end - start + 1;
+        }
+
+        public String contentRange(long totalLength) {
+            return "bytes " + start + "-" + end + "/" + totalLength;
+        }
+    }
+
+    @FunctionalInterface
+    public interface RangeReader {
+        InputStream open(long offset, long length) throws IOException;
+    }
+
+    /**
+     * Satisfiable ranges of the header for a representation of the given length.
+     * Returns null when the header is malformed (it is then ignored and the whole
+     * content is sent), an empty list when no range can be satisfied (416).
+     */
+    public static List<Segment> resolve(String rangeHeader, long length) {
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        List<Segment> segments = new ArrayList<>();
+        for (HttpRange range : ranges) {
+            if (length == 0) {
+                continue;
+            }
+            long start = range.getRangeStart(length);
+            if (start >= length) {
+                continue;
+            }
+            segments.add(new Segment(start, range.getRangeEnd(length)));
+        }
+        return segments;
+    }
+
+    // a Range request is only honoured while the validator the client holds is still current
+    public static boolean ifRangeMatches(String ifRange, String etag, Instant lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            // weak tags never match for ranges
+            return etag != null && !value.startsWith("W/") && value.equals(etag);
+        }
+        if (lastModified == null) {
+            return false;
+        }
+        try {
+            Instant date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return date.equals(lastModified.truncatedTo(ChronoUnit.SECONDS));
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    public static long multipartLength(List<Segment> segments, String boundary, String contentType, long totalLength) {
+        long length = 0;
+        for (Segment segment : segments) {
+            length += partHeader(boundary, contentType, segment, totalLength).length + segment.length();
+        }
+        return length + closing(boundary).length;
+    }
+
+    /**
+     * multipart/byteranges body; each part is opened only when the previous one was sent.
+     */
+    public static InputStream multipartStream(List<Segment> segments, String boundary, String contentType,
+                                              long totalLength, RangeReader reader) {
+        List<Object> parts = new ArrayList<>();
+        for (Segment segment : segments) {
+            parts.add(partHeader(boundary, contentType, segment, totalLength));
+            parts.add(segment);
+        }
+        parts.add(closing(boundary));
+
+        Enumeration<InputStream> streams = new Enumeration<>() {
+            private int index;
+
+            @Override
+            public boolean hasMoreElements() {
+                return index < parts.size();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                Object part = parts.get(index++);
+                if (part instanceof byte[] bytes) {
+                    return new ByteArrayInputStream(bytes);
+                }
+                Segment segment = (Segment) part;
+                try {
+                    return reader.open(segment.start(), segment.length());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        return new SequenceInputStream(streams);
+    }
+
+    private static byte[] partHeader(String boundary, String contentType, Segment segment, long totalLength) {
+        return ("\r\n--" + boundary + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Range: " + segment.contentRange(totalLength) + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] closing(String boundary) {
+        return ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+}
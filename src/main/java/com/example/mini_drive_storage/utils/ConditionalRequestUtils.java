@@ -0,0 +1,65 @@
+package com.example.mini_drive_storage.utils;
+
+import org.springframework.http.HttpHeaders;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HexFormat;
+import java.util.List;
+
+// If-None-Match / If-Modified-Since evaluation for GET requests (RFC 9110 section 13)
+public final class ConditionalRequestUtils {
+
+    private ConditionalRequestUtils() {
+    }
+
+    /**
+     * True when the client copy is still current and a 304 can be sent.
+     * If-None-Match wins over If-Modified-Since when both are present.
+     */
+    public static boolean isNotModified(HttpHeaders requestHeaders, String etag, Instant lastModified) {
+        List<String> ifNoneMatch = requestHeaders.getIfNoneMatch();
+        if (!ifNoneMatch.isEmpty()) {
+            if (etag == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch) {
+                // weak comparison, W/"x" matches "x"
+                if (candidate.equals("*") || opaqueTag(candidate).equals(opaqueTag(etag))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = requestHeaders.getIfModifiedSince();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return lastModified != null && ifModifiedSince >= 0
+                && lastModified.truncatedTo(ChronoUnit.SECONDS).toEpochMilli() <= ifModifiedSince;
+    }
+
+    // weak tag for a JSON listing from its version token and what identifies the request
+    public static String weakETag(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return "W/\"" + HexFormat.of().formatHex(digest.digest(), 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String opaqueTag(String tag) {
+        String value = tag.trim();
+        return value.startsWith("W/") ? value.substring(2) : value;
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.mini_drive_storage.utils;
 
+import com.example.mini_drive_storage.entity.UserPrincipal;
 import com.example.mini_drive_storage.entity.Users;
 import com.example.mini_drive_storage.exception.NotFoundException;
 import com.example.mini_drive_storage.repo.UserRepo;
@@ -25,6 +26,11 @@ public class CurrentUserUtils {
             throw new NotFoundException("User is not authenticated");
         }
 
+        // the filter already loaded the user of the token
+        if (authentication.getPrincipal() instanceof UserPrincipal principal) {
+            return principal.getUser();
+        }
+
         String email = authentication.getName();
 
         return userRepo.findByEmail(email)
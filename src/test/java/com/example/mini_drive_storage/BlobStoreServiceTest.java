@@ -0,0 +1,263 @@
+package com.example.mini_drive_storage;
+
+import com.example.mini_drive_storage.entity.Blob;
+import com.example.mini_drive_storage.repo.BlobRepo;
+import com.example.mini_drive_storage.service.BlobStoreService;
+import com.example.mini_drive_storage.service.StorageLayout;
+import com.example.mini_drive_storage.storage.CompressionPolicy;
+import com.example.mini_drive_storage.storage.ContentCodec;
+import com.example.mini_drive_storage.storage.LocalStorageBackend;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.io.InputStream;
+import java.util.List;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BlobStoreServiceTest {
+    // sha-256 of "hello"
+    private static final String HELLO_HASH = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+    @Mock
+    private BlobRepo blobRepo;
+
+    @Spy
+    private StorageLayout storageLayout = new StorageLayout(2, "storage/tmp");
+
+    @Spy
+    private LocalStorageBackend storageBackend = new LocalStorageBackend("storage");
+
+    @Spy
+    private CompressionPolicy compressionPolicy = new CompressionPolicy(true, List.of("text/*", "application/json"), 1024);
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @InjectMocks
+    private BlobStoreService blobStoreService;
+
+    @Test
+    void store_duplicateContent_shouldOnlyIncrementRefCount() {
+        blobStoreService.initStorage();
+        MockMultipartFile file = new MockMultipartFile("files", "a.txt", "text/plain", "hello".getBytes());
+        Blob existing = Blob.builder().hash(HELLO_HASH).path("storage/blobs/" + HELLO_HASH).size(5L).refCount(2).build();
+
+        when(blobRepo.incrementRefCount(HELLO_HASH)).thenReturn(1);
+        when(blobRepo.findById(HELLO_HASH)).thenReturn(Optional.of(existing));
+
+        Blob result = blobStoreService.store(file);
+
+        assertEquals(HELLO_HASH, result.getHash());
+        verify(blobRepo, never()).insertOrIncrement(any(), anyLong(), anyLong(), any());
+        // hashed on the way to the temp file, which a duplicate drops
+        assertEquals(0, new File("storage/tmp").list().length);
+    }
+
+    @Test
+    void store_newContent_shouldWriteBlob() throws Exception {
+        blobStoreService.initStorage();
+        MockMultipartFile file = new MockMultipartFile("files", "a.txt", "text/plain", "hello".getBytes());
+
+        when(blobRepo.incrementRefCount(HELLO_HASH)).thenReturn(0);
+        when(blobRepo.findById(HELLO_HASH)).thenAnswer(invocation -> Optional.of(Blob.builder()
+                .hash(HELLO_HASH)
+                .path("blobs/2c/f2/" + HELLO_HASH)
+                .size(5L)
+                .refCount(1)
+                .build()));
+
+        Blob result = blobStoreService.store(file);
+
+        assertEquals(storageLayout.blobKey(HELLO_HASH), result.getPath());
+        Path stored = Path.of("storage", result.getPath());
+        assertEquals("hello", Files.readString(stored));
+        verify(blobRepo).insertOrIncrement(eq(HELLO_HASH), eq(5L), eq(5L), eq(result.getPath()));
+        Files.deleteIfExists(stored);
+    }
+
+    @Test
+    void storeStream_duplicateContent_shouldDropTempFile() {
+        blobStoreService.initStorage();
+        Blob existing = Blob.builder().hash(HELLO_HASH).path("storage/blobs/" + HELLO_HASH).size(5L).refCount(2).build();
+
+        when(blobRepo.incrementRefCount(HELLO_HASH)).thenReturn(1);
+        when(blobRepo.findById(HELLO_HASH)).thenReturn(Optional.of(existing));
+
+        Blob result = blobStoreService.store(new ByteArrayInputStream("hello".getBytes()), "text/plain");
+
+        assertEquals(HELLO_HASH, result.getHash());
+        verify(blobRepo, never()).insertOrIncrement(any(), anyLong(), anyLong(), any());
+        assertEquals(0, new File("storage/tmp").list().length);
+    }
+
+    @Test
+    void storeStream_compressibleType_shouldStoreGzipAndKeepLogicalSize() throws Exception {
+        blobStoreService.initStorage();
+        String csv = "id,name,size\n".repeat(1000);
+        String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(csv.getBytes()));
+        String key = ContentCodec.gzipKey(storageLayout.blobKey(hash));
+
+        when(blobRepo.incrementRefCount(hash)).thenReturn(0);
+        when(blobRepo.findById(hash)).thenReturn(Optional.of(Blob.builder()
+                .hash(hash)
+                .path(key)
+                .size((long) csv.length())
+                .refCount(1)
+                .build()));
+
+        Blob result = blobStoreService.store(new ByteArrayInputStream(csv.getBytes()), "text/csv; charset=utf-8");
+
+        assertEquals(key, result.getPath());
+        Path stored = Path.of("storage", key);
+        assertTrue(Files.size(stored) < csv.length());
+        verify(blobRepo).insertOrIncrement(eq(hash), eq((long) csv.length()), eq(Files.size(stored)), eq(key));
+        try (InputStream in = ContentCodec.decode(key, Files.newInputStream(stored))) {
+            assertEquals(csv, new String(in.readAllBytes()));
+        }
+        Files.deleteIfExists(stored);
+    }
+
+    @Test
+    void importFile_shouldKeepSourceAndStoreInLayout() throws Exception {
+        blobStoreService.initStorage();
+        Path legacy = Files.createTempFile("legacy-", ".txt");
+        Files.writeString(legacy, "hello");
+        String key = storageLayout.blobKey(HELLO_HASH);
+        Path stored = Path.of("storage", key);
+
+        when(blobRepo.incrementRefCount(HELLO_HASH)).thenReturn(0);
+        when(blobRepo.findById(HELLO_HASH)).thenReturn(Optional.of(Blob.builder()
+                .hash(HELLO_HASH)
+                .path(key)
+                .size(5L)
+                .refCount(1)
+                .build()));
+
+        // absolute paths of files written before the blob store are valid local keys
+        blobStoreService.importFile(legacy.toString(), "text/plain");
+
+        assertTrue(Files.exists(legacy));
+        assertEquals("hello", Files.readString(stored));
+        Files.deleteIfExists(stored);
+        Files.deleteIfExists(legacy);
+    }
+
+    @Test
+    void release_lastReference_shouldDeleteFile() throws Exception {
+        Path file = Files.createTempFile("blob-", ".bin");
+        Blob blob = Blob.builder().hash(HELLO_HASH).path(file.toString()).size(5L).refCount(1).build();
+
+        when(blobRepo.findById(HELLO_HASH)).thenReturn(Optional.of(blob));
+        when(blobRepo.deleteIfUnreferenced(HELLO_HASH)).thenReturn(1);
+
+        blobStoreService.release(HELLO_HASH);
+
+        verify(blobRepo).decrementRefCount(HELLO_HASH);
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void release_stillReferenced_shouldKeepFile() throws Exception {
+        Path file = Files.createTempFile("blob-", ".bin");
+        Blob blob = Blob.builder().hash(HELLO_HASH).path(file.toString()).size(5L).refCount(2).build();
+
+        when(blobRepo.findById(HELLO_HASH)).thenReturn(Optional.of(blob));
+        when(blobRepo.deleteIfUnreferenced(HELLO_HASH)).thenReturn(0);
+
+        blobStoreService.release(HELLO_HASH);
+
+        assertTrue(Files.exists(file));
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void release_lastReferenceInTransaction_shouldDeleteFileAfterCommit() throws Exception {
+        Path file = Files.createTempFile("blob-", ".bin");
+        Blob blob = Blob.builder().hash(HELLO_HASH).path(file.toString()).size(5L).refCount(1).build();
+
+        when(blobRepo.findById(HELLO_HASH)).thenReturn(Optional.of(blob));
+        when(blobRepo.deleteIfUnreferenced(HELLO_HASH)).thenReturn(1);
+        when(blobRepo.existsById(HELLO_HASH)).thenReturn(false);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            blobStoreService.release(HELLO_HASH);
+            // a rollback from here on would still find the bytes
+            assertTrue(Files.exists(file));
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void release_deleteRacingUploadOfSameContent_shouldKeepTheUploadedObject() throws Exception {
+        blobStoreService.initStorage();
+        String key = storageLayout.blobKey(HELLO_HASH);
+        Path stored = Path.of("storage", key);
+        // the advisory lock of the hash, taken by lockHash and released when its transaction ends
+        ReentrantLock hashLock = new ReentrantLock();
+        AtomicBoolean registered = new AtomicBoolean();
+        when(blobRepo.lockHash(HELLO_HASH)).thenAnswer(invocation -> {
+            hashLock.lock();
+            return 1;
+        });
+        doAnswer(invocation -> {
+            if (hashLock.isHeldByCurrentThread()) {
+                hashLock.unlock();
+            }
+            return null;
+        }).when(transactionManager).commit(any());
+        when(blobRepo.incrementRefCount(HELLO_HASH)).thenReturn(0);
+        doAnswer(invocation -> {
+            registered.set(true);
+            return null;
+        }).when(blobRepo).insertOrIncrement(eq(HELLO_HASH), anyLong(), anyLong(), eq(key));
+        when(blobRepo.existsById(HELLO_HASH)).thenAnswer(invocation -> registered.get());
+        Blob released = Blob.builder().hash(HELLO_HASH).path(key).size(5L).refCount(1).build();
+        when(blobRepo.findById(HELLO_HASH)).thenReturn(Optional.of(released));
+        when(blobRepo.deleteIfUnreferenced(HELLO_HASH)).thenReturn(1);
+
+        // the last reference of the old copy commits while the new copy is written but not registered
+        Thread release = new Thread(() -> blobStoreService.release(HELLO_HASH));
+        doAnswer(invocation -> {
+            invocation.callRealMethod();
+            release.start();
+            while (!hashLock.hasQueuedThreads() && release.isAlive()) {
+                Thread.sleep(1);
+            }
+            return null;
+        }).when(storageBackend).putFile(eq(key), any());
+
+        blobStoreService.store(new ByteArrayInputStream("hello".getBytes()), "application/octet-stream");
+        release.join(5000);
+
+        // the delete waited for the upload's row and then left its object alone
+        assertFalse(release.isAlive());
+        assertEquals("hello", Files.readString(stored));
+        Files.deleteIfExists(stored);
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.mini_drive_storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Not part of the regular build (the name does not match the surefire includes), run it with
+//   mvn test -Dtest=DownloadPathBenchmark
+// Compares the old download path (InputStream copied through an 8 KB heap buffer, what
+// InputStreamResource does) with FileChannel.transferTo into a socket (sendfile on Linux).
+class DownloadPathBenchmark {
+    private static final int FILE_SIZE = 256 * 1024 * 1024;
+    private static final int ROUNDS = 5;
+
+    interface Sender {
+        void send(Path file, SocketChannel socket) throws Exception;
+    }
+
+    @Test
+    void compareDownloadPaths() throws Exception {
+        Path file = Files.createTempFile("download-bench-", ".bin");
+        byte[] chunk = new byte[1024 * 1024];
+        new Random(42).nextBytes(chunk);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int i = 0; i < FILE_SIZE / chunk.length; i++) {
+                out.write(chunk);
+            }
+        }
+
+        Sender stream = (source, socket) -> {
+            OutputStream out = Channels.newOutputStream(socket);
+            try (InputStream in = Files.newInputStream(source)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        };
+        Sender transferTo = (source, socket) -> {
+            try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+                long position = 0;
+                long size = channel.size();
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, socket);
+                }
+            }
+        };
+
+        try {
+            // warm up both paths before measuring
+            run("stream", stream, file, 2, false);
+            run("transferTo", transferTo, file, 2, false);
+            run("stream", stream, file, ROUNDS, true);
+            run("transferTo", transferTo, file, ROUNDS, true);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private void run(String name, Sender sender, Path file, int rounds, boolean print) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        ExecutorService drain = Executors.newSingleThreadExecutor();
+        long wallNanos = 0;
+        long cpuNanos = 0;
+        long allocated = 0;
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0))) {
+            for (int round = 0; round < rounds; round++) {
+                try (SocketChannel client = SocketChannel.open(server.getLocalAddress())) {
+                    Future<Long> received = drain.submit(() -> {
+                        try (SocketChannel peer = server.accept()) {
+                            ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+                            long total = 0;
+                            int read;
+                            while ((read = peer.read(buffer)) != -1) {
+                                total += read;
+                                buffer.clear();
+                            }
+                            return total;
+                        }
+                    });
+                    long cpuStart = threads.getCurrentThreadCpuTime();
+                    long allocatedStart = threads.getCurrentThreadAllocatedBytes();
+                    long start = System.nanoTime();
+                    sender.send(file, client);
+                    client.shutdownOutput();
+                    wallNanos += System.nanoTime() - start;
+                    cpuNanos += threads.getCurrentThreadCpuTime() - cpuStart;
+                    allocated += threads.getCurrentThreadAllocatedBytes() - allocatedStart;
+                    assertEquals(FILE_SIZE, received.get());
+                }
+            }
+        } finally {
+            drain.shutdownNow();
+        }
+        if (print) {
+            double gigabytes = (double) FILE_SIZE * rounds / (1024 * 1024 * 1024);
+            System.out.printf("%-10s %8.0f MB/s  %6.0f ms cpu/GB  %10d bytes allocated/GB%n",
+                    name,
+                    gigabytes * 1024 / (wallNanos / 1e9),
+                    cpuNanos / 1e6 / gigabytes,
+                    (long) (allocated / gigabytes));
+        }
+    }
+}
@@ -12,6 +12,7 @@ import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMultipartHttpServletRequestBuilder;
 
 import java.util.UUID;
 
@@ -47,6 +48,34 @@ class FileFlowIntegrationTest {
         downloadFile(tokenUserB, fileId);
     }
 
+    @Test
+    void search_shouldFindItemsOtherUsersPutIntoMyFolders() throws Exception {
+
+        register("owner@test.com", "123456");
+        register("editor@test.com", "123456");
+
+        String ownerToken = loginAndGetToken("owner@test.com", "123456");
+        String editorToken = loginAndGetToken("editor@test.com", "123456");
+
+        UUID sharedFolder = createFolder(ownerToken, "shared", null);
+        shareFile(sharedFolder, ownerToken, "editor@test.com", "EDIT");
+
+        // the editor owns everything below the shared folder, one level deep and nested
+        UUID editorFile = uploadFile(editorToken, sharedFolder);
+        UUID editorFolder = createFolder(editorToken, "nested", sharedFolder);
+        UUID nestedFile = uploadFile(editorToken, editorFolder);
+
+        mockMvc.perform(get("/api/v1/files")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + ownerToken))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].id", Matchers.hasItems(
+                        sharedFolder.toString(),
+                        editorFile.toString(),
+                        editorFolder.toString(),
+                        nestedFile.toString()
+                )));
+    }
+
     // ================= helpers =================
 
     private void register(String email, String password) throws Exception {
@@ -79,7 +108,32 @@ class FileFlowIntegrationTest {
     }
 
 
+    private UUID createFolder(String token, String name, UUID parentId) throws Exception {
+
+        MvcResult result = mockMvc.perform(post("/api/v1/files")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                        {
+                          "name": "%s",
+                          "parentId": %s,
+                          "type": "FOLDER"
+                        }
+                        """.formatted(name, parentId == null ? "null" : "\"" + parentId + "\""))
+                )
+                .andExpect(status().isOk())
+                .andReturn();
+
+        return UUID.fromString(
+                JsonPath.read(result.getResponse().getContentAsString(), "$.id")
+        );
+    }
+
     private UUID uploadFile(String token) throws Exception {
+        return uploadFile(token, null);
+    }
+
+    private UUID uploadFile(String token, UUID parentId) throws Exception {
 
         MockMultipartFile file = new MockMultipartFile(
                 "files",
@@ -88,10 +142,13 @@ class FileFlowIntegrationTest {
                 "hello integration test".getBytes()
         );
 
+        MockMultipartHttpServletRequestBuilder request = multipart("/api/v1/files").file(file);
+        if (parentId != null) {
+            request.param("parentId", parentId.toString());
+        }
+
         MvcResult result = mockMvc.perform(
-                        multipart("/api/v1/files")
-                                .file(file)
-                                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                        request.header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
                 )
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$[0].id").exists())
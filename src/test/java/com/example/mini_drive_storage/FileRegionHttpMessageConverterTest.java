@@ -0,0 +1,61 @@
+package com.example.mini_drive_storage;
+
+import com.example.mini_drive_storage.config.FileRegionHttpMessageConverter;
+import com.example.mini_drive_storage.dto.FileRegion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileRegionHttpMessageConverterTest {
+    private final FileRegionHttpMessageConverter converter = new FileRegionHttpMessageConverter(4);
+
+    @AfterEach
+    void resetRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void write_withoutSendfile_shouldTransferRegion() throws Exception {
+        Path file = Files.createTempFile("region-", ".txt");
+        Files.writeString(file, "0123456789");
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        converter.write(new FileRegion(file, 3, 5), MediaType.TEXT_PLAIN, new ServletServerHttpResponse(response));
+
+        assertEquals("34567", response.getContentAsString());
+        assertEquals(5, response.getContentLength());
+        assertNull(request.getAttribute("org.apache.tomcat.sendfile.filename"));
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void write_sendfileSupported_shouldHandFileToContainer() throws Exception {
+        Path file = Files.createTempFile("region-", ".txt");
+        Files.writeString(file, "0123456789");
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        converter.write(new FileRegion(file, 2, 6), MediaType.TEXT_PLAIN, new ServletServerHttpResponse(response));
+
+        assertEquals(0, response.getContentAsByteArray().length);
+        assertEquals(6, response.getContentLength());
+        assertEquals(file.toAbsolutePath().toString(), request.getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals(2L, request.getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals(8L, request.getAttribute("org.apache.tomcat.sendfile.end"));
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,603 @@
+package com.example.mini_drive_storage;
+
+import com.example.mini_drive_storage.dto.SubtreeItem;
+import com.example.mini_drive_storage.entity.FolderDownloadStatus;
+import com.example.mini_drive_storage.entity.FolderZipArchive;
+import com.example.mini_drive_storage.entity.FolderZipJob;
+import com.example.mini_drive_storage.entity.Items;
+import com.example.mini_drive_storage.entity.Users;
+import com.example.mini_drive_storage.enums.ArchiveFormat;
+import com.example.mini_drive_storage.enums.ItemType;
+import com.example.mini_drive_storage.exception.TooManyRequestsException;
+import com.example.mini_drive_storage.repo.FolderZipArchiveRepo;
+import com.example.mini_drive_storage.repo.FolderZipJobRepo;
+import com.example.mini_drive_storage.repo.ItemRepo;
+import com.example.mini_drive_storage.repo.UserRepo;
+import com.example.mini_drive_storage.service.FolderZipCache;
+import com.example.mini_drive_storage.service.FolderZipJobService;
+import com.example.mini_drive_storage.service.FolderZipProgressPublisher;
+import com.example.mini_drive_storage.service.FolderZipWriter;
+import com.example.mini_drive_storage.service.StorageLayout;
+import com.example.mini_drive_storage.storage.LocalStorageBackend;
+import com.example.mini_drive_storage.utils.CurrentUserUtils;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.stream.Stream;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class FolderZipJobServiceTest {
+    @Mock
+    private ItemRepo itemRepo;
+
+    @Mock
+    private CurrentUserUtils currentUserUtils;
+
+    @Mock
+    private UserRepo userRepo;
+
+    @Mock
+    private FolderZipJobRepo jobRepo;
+
+    @Mock
+    private FolderZipArchiveRepo archiveRepo;
+
+    private final LocalStorageBackend storageBackend = new LocalStorageBackend("storage");
+    private final StorageLayout storageLayout = new StorageLayout(2, "storage/tmp");
+    private final List<Runnable> queued = new ArrayList<>();
+    private final RecordingEmitter emitter = new RecordingEmitter();
+    private final FolderZipProgressPublisher progressPublisher = new FolderZipProgressPublisher(60_000) {
+        @Override
+        protected SseEmitter newEmitter() {
+            return emitter;
+        }
+    };
+    private final ExecutorService compressionPool = Executors.newFixedThreadPool(2);
+
+    private Users user;
+    private Items root;
+    private Path fileA;
+    private Path fileB;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        user = Users.builder().id(UUID.randomUUID()).build();
+        fileA = Files.createTempFile("zip-", ".txt");
+        Files.writeString(fileA, "alpha");
+        fileB = Files.createTempFile("zip-", ".txt");
+        Files.writeString(fileB, "beta");
+        root = Items.builder().id(UUID.randomUUID()).type(ItemType.FOLDER).name("docs").owner(user).build();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(fileA);
+        Files.deleteIfExists(fileB);
+        compressionPool.shutdownNow();
+    }
+
+    // keeps the event payloads instead of writing them to a response
+    private static class RecordingEmitter extends SseEmitter {
+        private final List<Map<String, Object>> events = new ArrayList<>();
+        private boolean completed;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void send(SseEventBuilder builder) {
+            builder.build().stream()
+                    .map(ResponseBodyEmitter.DataWithMediaType::getData)
+                    .filter(Map.class::isInstance)
+                    .forEach(data -> events.add((Map<String, Object>) data));
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+    }
+
+    private record Row(UUID id, UUID parentId, String name, String type, String path, Long size,
+                       String mimeType, Instant updatedDate) implements SubtreeItem {
+        public UUID getId() {
+            return id;
+        }
+
+        public UUID getParentId() {
+            return parentId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Long getSize() {
+            return size;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public Instant getUpdatedDate() {
+            return updatedDate;
+        }
+    }
+
+    private void stubTree() {
+        UUID sub = UUID.randomUUID();
+        // depth first, then name, as the query returns them
+        when(itemRepo.findLiveSubtree(root.getId())).thenReturn(List.of(
+                new Row(UUID.randomUUID(), root.getId(), "z.txt", "FILE", fileA.toString(), 5L, "text/plain", null),
+                new Row(sub, root.getId(), "sub", "FOLDER", null, null, null, null),
+                new Row(UUID.randomUUID(), sub, "b.jpg", "FILE", fileB.toString(), 4L, "image/jpeg", null)));
+    }
+
+    private FolderZipWriter writer(int window) {
+        return new FolderZipWriter(itemRepo, storageBackend, storageLayout, new TaskExecutorAdapter(compressionPool),
+                List.of("image/jpeg", "video/*"), window, 3);
+    }
+
+    private FolderZipJobService service(Executor executor, int maxJobsPerUser) {
+        return new FolderZipJobService(itemRepo, userRepo, jobRepo, archiveRepo, currentUserUtils, writer(8),
+                new FolderZipCache(archiveRepo, storageBackend, 12), progressPublisher, storageBackend, storageLayout,
+                executor, 1, maxJobsPerUser, 20, 60, 60_000, 3, "node-1");
+    }
+
+    private FolderZipJob job(String status, String fingerprint) {
+        return FolderZipJob.builder().id(UUID.randomUUID()).owner(user).folderId(root.getId())
+                .fingerprint(fingerprint).status(status).build();
+    }
+
+    private FolderZipArchive archive(String fingerprint, String status) {
+        return FolderZipArchive.builder().fingerprint(fingerprint).folderId(root.getId()).status(status)
+                .archiveKey("archives/" + fingerprint + ".zip").build();
+    }
+
+    private void stubSubmit() {
+        when(itemRepo.findById(root.getId())).thenReturn(Optional.of(root));
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        stubTree();
+    }
+
+    private FolderZipJob savedJob() {
+        ArgumentCaptor<FolderZipJob> captor = ArgumentCaptor.forClass(FolderZipJob.class);
+        verify(jobRepo).save(captor.capture());
+        return captor.getValue();
+    }
+
+    private Map<String, String> unzip(byte[] archive) throws Exception {
+        Map<String, String> entries = new HashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                entries.put(entry.getName(), new String(zip.readAllBytes()));
+            }
+        }
+        return entries;
+    }
+
+    // entry name -> compression method, in archive order
+    private Map<String, Integer> entryMethods(byte[] archive) throws Exception {
+        Map<String, Integer> methods = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                methods.put(entry.getName(), entry.getMethod());
+            }
+        }
+        return methods;
+    }
+
+    private static Map<String, String> untar(InputStream in) throws IOException {
+        Map<String, String> content = new LinkedHashMap<>();
+        try (TarArchiveInputStream tar = new TarArchiveInputStream(in)) {
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                content.put(entry.getName(), new String(tar.readAllBytes()));
+            }
+        }
+        return content;
+    }
+
+    @Test
+    void writer_shouldStreamNestedEntriesInPathOrder() throws Exception {
+        stubTree();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer(8).write(root, out, ArchiveFormat.ZIP);
+
+        assertEquals(Map.of("docs/z.txt", "alpha", "docs/sub/b.jpg", "beta"), unzip(out.toByteArray()));
+        Map<String, Integer> methods = entryMethods(out.toByteArray());
+        assertEquals(List.of("docs/sub/b.jpg", "docs/z.txt"), List.copyOf(methods.keySet()));
+        // already compressed types are stored as they are
+        assertEquals(ZipEntry.STORED, methods.get("docs/sub/b.jpg"));
+        assertEquals(ZipEntry.DEFLATED, methods.get("docs/z.txt"));
+    }
+
+    @Test
+    void writer_selection_shouldPutSelectedItemsAtRootWithUniqueNames() throws Exception {
+        UUID otherFolder = UUID.randomUUID();
+        UUID sub = UUID.randomUUID();
+        // as ItemRepo.findLiveSelection returns them: overlaps already removed, parents first
+        List<SubtreeItem> selection = List.of(
+                new Row(UUID.randomUUID(), root.getId(), "a.txt", "FILE", fileA.toString(), 5L, "text/plain", null),
+                new Row(UUID.randomUUID(), otherFolder, "a.txt", "FILE", fileB.toString(), 4L, "text/plain", null),
+                new Row(sub, otherFolder, "sub", "FOLDER", null, null, null, null),
+                new Row(UUID.randomUUID(), sub, "b.jpg", "FILE", fileB.toString(), 4L, "image/jpeg", null));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer(8).writeSelection(selection, out, ArchiveFormat.ZIP);
+
+        assertEquals(Map.of("a.txt", "alpha", "a (2).txt", "beta", "sub/b.jpg", "beta"), unzip(out.toByteArray()));
+    }
+
+    @Test
+    void writer_tar_shouldCopyEntriesAsTheyAre() throws Exception {
+        stubTree();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer(8).write(root, out, ArchiveFormat.TAR);
+
+        assertEquals(Map.of("docs/sub/b.jpg", "beta", "docs/z.txt", "alpha"),
+                untar(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test
+    void writer_tarZst_shouldCompressTheWholeStream() throws Exception {
+        stubTree();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer(8).write(root, out, ArchiveFormat.TAR_ZST);
+
+        assertEquals(Map.of("docs/sub/b.jpg", "beta", "docs/z.txt", "alpha"),
+                untar(new ZstdCompressorInputStream(new ByteArrayInputStream(out.toByteArray()))));
+    }
+
+    @Test
+    void writer_manyEntries_shouldKeepOrderAndDropScratchFiles() throws Exception {
+        // large enough to be compressed through a scratch file
+        Files.write(fileA, "0123456789abcdef".repeat(100_000).getBytes());
+        List<FolderZipWriter.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Path path = i % 5 == 0 ? fileA : fileB;
+            entries.add(new FolderZipWriter.Entry("docs/" + (char) ('a' + i), path.toString(), Files.size(path), "text/plain"));
+        }
+        List<Long> progress = new ArrayList<>();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer(3).write(entries, out, new FolderZipWriter.Listener() {
+            @Override
+            public void bytesWritten(long bytes) {
+                progress.add(bytes);
+            }
+        });
+
+        Map<String, String> content = unzip(out.toByteArray());
+        assertEquals(entries.stream().map(FolderZipWriter.Entry::name).toList(), List.copyOf(entryMethods(out.toByteArray()).keySet()));
+        assertEquals(Files.readString(fileA), content.get("docs/a"));
+        assertEquals("beta", content.get("docs/b"));
+        assertEquals(entries.stream().mapToLong(FolderZipWriter.Entry::size).sum(), progress.stream().mapToLong(Long::longValue).sum());
+        try (Stream<Path> scratch = Files.list(storageLayout.tempDir())) {
+            assertEquals(0, scratch.count());
+        }
+    }
+
+    @Test
+    void submit_newContent_shouldQueueBuild() {
+        stubSubmit();
+        when(jobRepo.save(any(FolderZipJob.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        service(queued::add, 2).submit(root.getId(), ArchiveFormat.ZIP);
+
+        String fingerprint = FolderZipCache.fingerprint(root, itemRepo.findLiveSubtree(root.getId()), ArchiveFormat.ZIP);
+        verify(userRepo).findWithLockById(user.getId());
+        verify(archiveRepo).request(fingerprint, root.getId(), "zip");
+        FolderZipJob job = savedJob();
+        assertEquals("PENDING", job.getStatus());
+        assertEquals(fingerprint, job.getFingerprint());
+        assertSame(user, job.getOwner());
+        // builds are claimed by the worker tick, not run by the request
+        assertTrue(queued.isEmpty());
+    }
+
+    @Test
+    void submit_cachedArchive_shouldBeReadyWithoutBuild() throws Exception {
+        stubSubmit();
+        String fingerprint = FolderZipCache.fingerprint(root, itemRepo.findLiveSubtree(root.getId()), ArchiveFormat.ZIP);
+        storageBackend.put("archives/" + fingerprint + ".zip", new ByteArrayInputStream(new byte[4]), 4);
+        when(archiveRepo.findWithLockByFingerprint(fingerprint)).thenReturn(Optional.of(archive(fingerprint, "READY")));
+        when(jobRepo.save(any(FolderZipJob.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        service(queued::add, 2).submit(root.getId(), ArchiveFormat.ZIP);
+
+        FolderZipJob job = savedJob();
+        assertEquals("READY", job.getStatus());
+        assertNotNull(job.getExpiresAt());
+        verify(archiveRepo).touch(eq(fingerprint), any());
+        verify(archiveRepo, never()).request(any(), any(), any());
+    }
+
+    @Test
+    void submit_overPerUserLimit_shouldThrow() {
+        stubSubmit();
+        when(jobRepo.countByOwner_IdAndStatus(user.getId(), "PENDING")).thenReturn(2L);
+
+        assertThrows(TooManyRequestsException.class, () -> service(queued::add, 2).submit(root.getId(), ArchiveFormat.ZIP));
+        verify(archiveRepo, never()).request(any(), any(), any());
+    }
+
+    @Test
+    void submit_backlogFull_shouldThrow() {
+        stubSubmit();
+        when(archiveRepo.countByStatus("PENDING")).thenReturn(20L);
+
+        assertThrows(TooManyRequestsException.class, () -> service(queued::add, 2).submit(root.getId(), ArchiveFormat.ZIP));
+        verify(jobRepo, never()).save(any());
+    }
+
+    @Test
+    void submit_whileSameContentIsBuilding_shouldJoinBuild() {
+        stubSubmit();
+        String fingerprint = FolderZipCache.fingerprint(root, itemRepo.findLiveSubtree(root.getId()), ArchiveFormat.ZIP);
+        when(archiveRepo.findWithLockByFingerprint(fingerprint)).thenReturn(Optional.of(archive(fingerprint, "BUILDING")));
+        when(jobRepo.save(any(FolderZipJob.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        service(queued::add, 2).submit(root.getId(), ArchiveFormat.ZIP);
+
+        // no backlog admission, the build is already running
+        verify(archiveRepo, never()).countByStatus(any());
+        assertEquals("PENDING", savedJob().getStatus());
+    }
+
+    @Test
+    void work_shouldBuildClaimedArchiveAndCompleteJobs() throws Exception {
+        stubTree();
+        String fp = FolderZipCache.fingerprint(root, itemRepo.findLiveSubtree(root.getId()), ArchiveFormat.ZIP);
+        when(archiveRepo.claimNext(eq("node-1"), any(), eq(3))).thenReturn(List.of(fp), List.of());
+        when(archiveRepo.findById(fp)).thenReturn(Optional.of(archive(fp, "BUILDING")));
+        when(itemRepo.findById(root.getId())).thenReturn(Optional.of(root));
+
+        service(Runnable::run, 2).work();
+
+        verify(archiveRepo).complete(eq(fp), eq("node-1"), eq("archives/" + fp + ".zip"), longThat(size -> size > 0),
+                eq(2), eq(9L), any());
+        assertEquals(Map.of("docs/z.txt", "alpha", "docs/sub/b.jpg", "beta"),
+                unzip(Files.readAllBytes(Path.of("storage/archives/" + fp + ".zip"))));
+    }
+
+    @Test
+    void work_tarArchive_shouldBeStoredUnderItsExtension() throws Exception {
+        stubTree();
+        String fp = FolderZipCache.fingerprint(root, itemRepo.findLiveSubtree(root.getId()), ArchiveFormat.TAR);
+        FolderZipArchive archive = archive(fp, "BUILDING");
+        archive.setFormat("tar");
+        when(archiveRepo.claimNext(eq("node-1"), any(), eq(3))).thenReturn(List.of(fp), List.of());
+        when(archiveRepo.findById(fp)).thenReturn(Optional.of(archive));
+        when(itemRepo.findById(root.getId())).thenReturn(Optional.of(root));
+
+        service(Runnable::run, 2).work();
+
+        verify(archiveRepo).complete(eq(fp), eq("node-1"), eq("archives/" + fp + ".tar"), anyLong(), eq(2), eq(9L), any());
+        assertEquals(Map.of("docs/sub/b.jpg", "beta", "docs/z.txt", "alpha"),
+                untar(Files.newInputStream(Path.of("storage/archives/" + fp + ".tar"))));
+    }
+
+    @Test
+    void work_folderChangedSinceSubmit_shouldMoveJobsToCurrentContent() {
+        stubTree();
+        String current = FolderZipCache.fingerprint(root, itemRepo.findLiveSubtree(root.getId()), ArchiveFormat.ZIP);
+        // requested for an older state of the folder
+        when(archiveRepo.claimNext(eq("node-1"), any(), eq(3))).thenReturn(List.of("old"), List.of());
+        when(archiveRepo.findById("old")).thenReturn(Optional.of(archive("old", "BUILDING")));
+        when(archiveRepo.findById(current)).thenReturn(Optional.empty());
+        when(itemRepo.findById(root.getId())).thenReturn(Optional.of(root));
+        when(archiveRepo.abandon("old", "node-1")).thenReturn(1);
+
+        service(Runnable::run, 2).work();
+
+        verify(archiveRepo).request(current, root.getId(), "zip");
+        verify(jobRepo).repoint(eq("old"), eq(current), any());
+        verify(archiveRepo).abandon("old", "node-1");
+        verify(archiveRepo, never()).complete(any(), any(), any(), anyLong(), anyInt(), anyLong(), any());
+    }
+
+    @Test
+    void submit_otherFormat_shouldNotShareTheZipArchive() {
+        stubSubmit();
+        when(jobRepo.save(any(FolderZipJob.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        service(queued::add, 2).submit(root.getId(), ArchiveFormat.TAR_ZST);
+
+        List<SubtreeItem> subtree = itemRepo.findLiveSubtree(root.getId());
+        String fingerprint = FolderZipCache.fingerprint(root, subtree, ArchiveFormat.TAR_ZST);
+        assertNotEquals(FolderZipCache.fingerprint(root, subtree, ArchiveFormat.ZIP), fingerprint);
+        verify(archiveRepo).request(fingerprint, root.getId(), "tar.zst");
+    }
+
+    @Test
+    void work_noJobWaitsAnymore_shouldAbandonBuild() {
+        when(archiveRepo.claimNext(eq("node-1"), any(), eq(3))).thenReturn(List.of("fp"));
+        when(archiveRepo.heartbeat(eq("fp"), eq("node-1"), anyInt(), anyInt(), anyLong(), anyLong(), any())).thenReturn(1);
+        when(archiveRepo.abandon("fp", "node-1")).thenReturn(1);
+        FolderZipJobService service = service(queued::add, 2);
+        service.work();
+
+        // the next tick sees every job of the build cancelled
+        service.work();
+        queued.forEach(Runnable::run);
+
+        verify(archiveRepo, times(1)).claimNext(any(), any(), anyInt());
+        verify(archiveRepo).abandon("fp", "node-1");
+        verify(archiveRepo, never()).release(any(), any());
+        verify(archiveRepo, never()).complete(any(), any(), any(), anyLong(), anyInt(), anyLong(), any());
+    }
+
+    @Test
+    void work_executorFull_shouldReleaseClaim() {
+        when(archiveRepo.claimNext(eq("node-1"), any(), eq(3))).thenReturn(List.of("fp"));
+
+        service(task -> {
+            throw new RejectedExecutionException("full");
+        }, 2).work();
+
+        verify(archiveRepo).release("fp", "node-1");
+    }
+
+    @Test
+    void getStatus_shouldShowProgressOfRunningBuild() {
+        FolderZipJob job = job("PENDING", "fp");
+        FolderZipArchive archive = archive("fp", "BUILDING");
+        archive.setBytesDone(3);
+        archive.setBytesTotal(9);
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        when(jobRepo.findById(job.getId())).thenReturn(Optional.of(job));
+        when(archiveRepo.findById("fp")).thenReturn(Optional.of(archive));
+
+        FolderDownloadStatus status = service(queued::add, 2).getStatus(job.getId());
+
+        assertEquals("PROCESSING", status.getStatus());
+        assertEquals(3, status.getBytesDone());
+        assertEquals(9, status.getBytesTotal());
+        assertNull(status.getZipPath());
+    }
+
+    @Test
+    void getStatus_otherUser_shouldNotSeeJob() {
+        FolderZipJob job = job("READY", "fp");
+        when(currentUserUtils.getCurrentUser()).thenReturn(Users.builder().id(UUID.randomUUID()).build());
+        when(jobRepo.findById(job.getId())).thenReturn(Optional.of(job));
+
+        assertNull(service(queued::add, 2).getStatus(job.getId()));
+    }
+
+    @Test
+    void cancel_pendingJob_shouldKeepItAsCancelled() {
+        FolderZipJob job = job("PENDING", "fp");
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        when(jobRepo.findById(job.getId())).thenReturn(Optional.of(job));
+
+        service(queued::add, 2).cancel(job.getId());
+
+        assertEquals("CANCELLED", job.getStatus());
+        assertNotNull(job.getExpiresAt());
+        verify(jobRepo).save(job);
+    }
+
+    @Test
+    void cancel_readyJob_shouldDropIt() {
+        FolderZipJob job = job("READY", "fp");
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        when(jobRepo.findById(job.getId())).thenReturn(Optional.of(job));
+
+        service(queued::add, 2).cancel(job.getId());
+
+        verify(jobRepo).delete(job);
+    }
+
+    @Test
+    void publishProgress_shouldPushTransitionsUntilReady() {
+        FolderZipJob job = job("PENDING", "fp");
+        FolderZipArchive archive = archive("fp", "PENDING");
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        when(jobRepo.findById(job.getId())).thenReturn(Optional.of(job));
+        when(archiveRepo.findById("fp")).thenReturn(Optional.of(archive));
+        when(jobRepo.findAllById(Set.of(job.getId()))).thenReturn(List.of(job));
+        when(archiveRepo.findAllById(Set.of("fp"))).thenReturn(List.of(archive));
+        FolderZipJobService service = service(queued::add, 2);
+        service.subscribe(job.getId());
+
+        archive.setStatus("BUILDING");
+        archive.setBytesDone(4);
+        archive.setBytesTotal(8);
+        service.publishProgress();
+        // nothing changed, nothing is sent
+        service.publishProgress();
+        job.setStatus("READY");
+        archive.setStatus("READY");
+        service.publishProgress();
+
+        assertEquals(List.of("PENDING", "PROCESSING", "READY"),
+                emitter.events.stream().map(event -> event.get("status")).toList());
+        assertEquals(50, emitter.events.get(1).get("percent"));
+        assertEquals("/api/v1/files/downloads/" + job.getId() + "/file", emitter.events.get(2).get("downloadUrl"));
+        assertTrue(emitter.completed);
+    }
+
+    @Test
+    void subscribe_finishedJob_shouldSendStateAndClose() {
+        FolderZipJob job = job("READY", "fp");
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        when(jobRepo.findById(job.getId())).thenReturn(Optional.of(job));
+        when(archiveRepo.findById("fp")).thenReturn(Optional.of(archive("fp", "READY")));
+
+        service(queued::add, 2).subscribe(job.getId());
+
+        assertEquals(1, emitter.events.size());
+        assertEquals("READY", emitter.events.get(0).get("status"));
+        assertTrue(emitter.completed);
+    }
+
+    @Test
+    void cache_overBudget_shouldEvictLeastRecentlyUsedArchives() throws Exception {
+        FolderZipArchive oldest = archive("a", "READY");
+        oldest.setSize(6L);
+        FolderZipArchive newer = archive("b", "READY");
+        newer.setSize(6L);
+        storageBackend.put("archives/a.zip", new ByteArrayInputStream(new byte[6]), 6);
+        storageBackend.put("archives/b.zip", new ByteArrayInputStream(new byte[6]), 6);
+        when(archiveRepo.totalReadyBytes()).thenReturn(18L);
+        // the query only returns archives no job points to, oldest first
+        when(archiveRepo.findEvictable(anyInt())).thenReturn(List.of(oldest, newer));
+
+        new FolderZipCache(archiveRepo, storageBackend, 12).evict();
+
+        assertFalse(storageBackend.exists("archives/a.zip"));
+        assertTrue(storageBackend.exists("archives/b.zip"));
+        verify(archiveRepo).delete(oldest);
+        verify(archiveRepo, never()).delete(newer);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.mini_drive_storage;
+
+import com.example.mini_drive_storage.entity.FilePermission;
+import com.example.mini_drive_storage.entity.Items;
+import com.example.mini_drive_storage.entity.Users;
+import com.example.mini_drive_storage.enums.ItemType;
+import com.example.mini_drive_storage.enums.PermissionLevel;
+import com.example.mini_drive_storage.repo.FilePermissionRepo;
+import com.example.mini_drive_storage.repo.ItemRepo;
+import com.example.mini_drive_storage.service.ItemBatchService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ItemBatchServiceTest {
+    @Mock
+    private ItemRepo itemRepo;
+
+    @Mock
+    private FilePermissionRepo filePermissionRepo;
+
+    @InjectMocks
+    private ItemBatchService itemBatchService;
+
+    @Test
+    void saveFilesWithPermissions_inFolder_shouldNotCopyFolderPermissions() {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        Items parent = Items.builder().id(UUID.randomUUID()).type(ItemType.FOLDER).owner(owner).build();
+        List<Items> files = List.of(
+                Items.builder().name("a.txt").type(ItemType.FILE).parent(parent).owner(owner).build(),
+                Items.builder().name("b.txt").type(ItemType.FILE).parent(parent).owner(owner).build(),
+                Items.builder().name("c.txt").type(ItemType.FILE).parent(parent).owner(owner).build()
+        );
+
+        when(itemRepo.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        List<Items> saved = itemBatchService.saveFilesWithPermissions(files, parent, owner);
+
+        // the folder permissions reach the files when they are checked
+        assertEquals(3, saved.size());
+        verifyNoInteractions(filePermissionRepo);
+    }
+
+    @Test
+    void saveFilesWithPermissions_root_ownerGetsEdit() {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        List<Items> files = List.of(Items.builder().name("a.txt").type(ItemType.FILE).owner(owner).build());
+
+        when(itemRepo.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        itemBatchService.saveFilesWithPermissions(files, null, owner);
+
+        ArgumentCaptor<List<FilePermission>> captor = ArgumentCaptor.forClass(List.class);
+        verify(filePermissionRepo).saveAll(captor.capture());
+        assertEquals(1, captor.getValue().size());
+        assertEquals(PermissionLevel.EDIT, captor.getValue().get(0).getPermissionLevel());
+        assertSame(owner, captor.getValue().get(0).getSharedToUser());
+    }
+}
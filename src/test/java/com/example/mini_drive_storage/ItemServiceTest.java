@@ -1,9 +1,12 @@
 package com.example.mini_drive_storage;
 
 import com.example.mini_drive_storage.dto.CreateFolderRequest;
+import com.example.mini_drive_storage.dto.FileRegion;
+import com.example.mini_drive_storage.dto.FileSearchRequest;
 import com.example.mini_drive_storage.dto.ItemResponseDto;
 import com.example.mini_drive_storage.dto.ShareFileRequest;
 import com.example.mini_drive_storage.dto.SharedItemResponseDto;
+import com.example.mini_drive_storage.entity.Blob;
 import com.example.mini_drive_storage.entity.FilePermission;
 import com.example.mini_drive_storage.entity.Items;
 import com.example.mini_drive_storage.entity.Users;
@@ -14,14 +17,21 @@ import com.example.mini_drive_storage.exception.NotFoundException;
 import com.example.mini_drive_storage.repo.FilePermissionRepo;
 import com.example.mini_drive_storage.repo.ItemRepo;
 import com.example.mini_drive_storage.repo.UserRepo;
+import com.example.mini_drive_storage.service.AuthorizationContext;
+import com.example.mini_drive_storage.service.BlobStoreService;
 import com.example.mini_drive_storage.service.EmailService;
+import com.example.mini_drive_storage.service.ItemBatchService;
 import com.example.mini_drive_storage.service.ItemService;
+import com.example.mini_drive_storage.service.FolderZipJobService;
+import com.example.mini_drive_storage.service.PermissionService;
+import com.example.mini_drive_storage.storage.LocalStorageBackend;
 import com.example.mini_drive_storage.utils.CurrentUserUtils;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.HttpHeaders;
@@ -36,6 +46,7 @@ import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -57,6 +68,27 @@ public class ItemServiceTest {
     @Mock
     private EmailService emailService;
 
+    @Mock
+    private BlobStoreService blobStoreService;
+
+    @Mock
+    private ItemBatchService itemBatchService;
+
+    @Mock
+    private Executor uploadExecutor;
+
+    @Spy
+    private LocalStorageBackend storageBackend = new LocalStorageBackend("storage");
+
+    @Mock
+    private FolderZipJobService folderZipJobService;
+
+    @Mock
+    private PermissionService permissionService;
+
+    @Mock
+    private AuthorizationContext authorizationContext;
+
     @InjectMocks
     private ItemService itemService;
 
@@ -121,19 +153,13 @@ public class ItemServiceTest {
         when(itemRepo.findById(parent.getId())).thenReturn(Optional.of(parent));
         when(itemRepo.save(any(Items.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
-        FilePermission parentPermission = FilePermission.builder()
-                .sharedToUser(user)
-                .permissionLevel(PermissionLevel.EDIT)
-                .build();
-        when(filePermissionRepo.findByItem(parent)).thenReturn(List.of(parentPermission));
-
         ItemResponseDto result = itemService.createFolder(request);
 
         assertNotNull(result);
         assertEquals("Child Folder", result.getName());
         verify(itemRepo).findById(parent.getId());
-        verify(filePermissionRepo).findByItem(parent);
-        verify(filePermissionRepo).save(any(FilePermission.class));
+        // the parent folder permissions apply to it without copies
+        verify(filePermissionRepo, never()).save(any(FilePermission.class));
     }
 
     @Test
@@ -156,8 +182,8 @@ public class ItemServiceTest {
 
         when(currentUserUtils.getCurrentUser()).thenReturn(user);
         when(itemRepo.findById(parent.getId())).thenReturn(Optional.of(parent));
-        when(filePermissionRepo.findByItemAndSharedToUser(parent, user))
-                .thenReturn(Optional.empty());
+        when(permissionService.resolveLevel(user.getId(), parent.getId()))
+                .thenReturn(null);
 
         assertThrows(InvalidRequestException.class, () ->
                 itemService.createFolder(request)
@@ -177,16 +203,69 @@ public class ItemServiceTest {
         when(file.getOriginalFilename()).thenReturn("test.txt");
         when(file.getSize()).thenReturn(100L);
         when(file.getContentType()).thenReturn("text/plain");
-        when(file.getInputStream()).thenReturn(new ByteArrayInputStream("hello".getBytes()));
-        when(itemRepo.save(any(Items.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(blobStoreService.store(file)).thenReturn(Blob.builder()
+                .hash("abc")
+                .path("storage/blobs/abc")
+                .size(100L)
+                .refCount(1)
+                .build());
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(uploadExecutor).execute(any(Runnable.class));
+        when(itemBatchService.saveFilesWithPermissions(anyList(), isNull(), eq(user)))
+                .thenAnswer(invocation -> invocation.getArgument(0));
 
         var result = itemService.uploadFiles(List.of(file), null);
         assertNotNull(result);
         assertEquals(1, result.size());
         assertEquals(1, result.size());
         assertEquals("test.txt", result.get(0).getName());
-        verify(itemRepo).save(any(Items.class));
-        verify(filePermissionRepo).save(any(FilePermission.class));
+        verify(itemBatchService).saveFilesWithPermissions(
+                argThat(items -> items.size() == 1 && "abc".equals(items.get(0).getContentHash())),
+                isNull(),
+                eq(user)
+        );
+    }
+
+    @Test
+    void uploadFileContent_root_shouldSaveItemInOneBatch() {
+        Users user = Users.builder().id(UUID.randomUUID()).build();
+        ByteArrayInputStream content = new ByteArrayInputStream("hello".getBytes());
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        when(blobStoreService.store(content, "text/plain")).thenReturn(Blob.builder()
+                .hash("abc")
+                .path("storage/blobs/abc")
+                .size(5L)
+                .refCount(1)
+                .build());
+        when(itemBatchService.saveFilesWithPermissions(anyList(), isNull(), eq(user)))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        ItemResponseDto result = itemService.uploadFileContent(content, "a.txt", "text/plain", null);
+
+        assertEquals("a.txt", result.getName());
+        verify(blobStoreService, never()).release(any());
+    }
+
+    @Test
+    void uploadFileContent_saveFails_shouldReleaseBlob() {
+        Users user = Users.builder().id(UUID.randomUUID()).build();
+        ByteArrayInputStream content = new ByteArrayInputStream("hello".getBytes());
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        when(blobStoreService.store(content, "text/plain")).thenReturn(Blob.builder()
+                .hash("abc")
+                .path("storage/blobs/abc")
+                .size(5L)
+                .refCount(1)
+                .build());
+        when(itemBatchService.saveFilesWithPermissions(anyList(), isNull(), eq(user)))
+                .thenThrow(new IllegalStateException("duplicate name"));
+
+        assertThrows(IllegalStateException.class, () ->
+                itemService.uploadFileContent(content, "a.txt", "text/plain", null)
+        );
+        verify(blobStoreService).release("abc");
     }
 
     @Test
@@ -242,8 +321,8 @@ public class ItemServiceTest {
         when(itemRepo.findById(parent.getId()))
                 .thenReturn(Optional.of(parent));
 
-        when(filePermissionRepo.findByItemAndSharedToUser(parent, user))
-                .thenReturn(Optional.empty());
+        when(permissionService.resolveLevel(user.getId(), parent.getId()))
+                .thenReturn(null);
 
         MultipartFile file = org.mockito.Mockito.mock(MultipartFile.class);
 
@@ -280,14 +359,13 @@ public class ItemServiceTest {
         when(userRepo.findByEmail("target@gmail.com"))
                 .thenReturn(Optional.of(target));
 
-        when(filePermissionRepo.save(any(FilePermission.class)))
-                .thenAnswer(i -> i.getArgument(0));
-
         // ACT
         itemService.shareItem(item.getId(), request);
 
         // ASSERT
-        verify(filePermissionRepo).save(any(FilePermission.class));
+        verify(filePermissionRepo).share(item.getId(), target.getId(), "VIEW");
+        // cached decisions of the target under the item are dropped
+        verify(permissionService).onShareChanged(item.getId(), target.getId());
         verify(emailService).sendShareNotification(any(), any(),any());
     }
 
@@ -314,11 +392,6 @@ public class ItemServiceTest {
                 .type(ItemType.FILE)
                 .build();
 
-        FilePermission viewPermission = FilePermission.builder()
-                .item(item)
-                .sharedToUser(user)
-                .permissionLevel(PermissionLevel.VIEW)
-                .build();
 
         ShareFileRequest request = ShareFileRequest.builder()
                 .email("target@gmail.com")
@@ -327,14 +400,14 @@ public class ItemServiceTest {
 
         when(currentUserUtils.getCurrentUser()).thenReturn(user);
         when(itemRepo.findById(item.getId())).thenReturn(Optional.of(item));
-        when(filePermissionRepo.findByItemAndSharedToUser(item, user))
-                .thenReturn(Optional.of(viewPermission));
+        when(permissionService.resolveLevel(user.getId(), item.getId()))
+                .thenReturn(PermissionLevel.VIEW);
 
         assertThrows(InvalidRequestException.class, () ->
                 itemService.shareItem(item.getId(), request)
         );
 
-        verify(filePermissionRepo, never()).save(any());
+        verify(filePermissionRepo, never()).share(any(), any(), any());
         verify(emailService, never()).sendShareNotification(any(), any(), any());
     }
 
@@ -361,11 +434,6 @@ public class ItemServiceTest {
                 .type(ItemType.FILE)
                 .build();
 
-        FilePermission editPermission = FilePermission.builder()
-                .item(item)
-                .sharedToUser(editor)
-                .permissionLevel(PermissionLevel.EDIT)
-                .build();
 
         ShareFileRequest request = ShareFileRequest.builder()
                 .email("target@gmail.com")
@@ -374,14 +442,14 @@ public class ItemServiceTest {
 
         when(currentUserUtils.getCurrentUser()).thenReturn(editor);
         when(itemRepo.findById(item.getId())).thenReturn(Optional.of(item));
-        when(filePermissionRepo.findByItemAndSharedToUser(item, editor))
-                .thenReturn(Optional.of(editPermission));
+        when(permissionService.resolveLevel(editor.getId(), item.getId()))
+                .thenReturn(PermissionLevel.EDIT);
         when(userRepo.findByEmail("target@gmail.com"))
                 .thenReturn(Optional.of(target));
 
         itemService.shareItem(item.getId(), request);
 
-        verify(filePermissionRepo).save(any(FilePermission.class));
+        verify(filePermissionRepo).share(item.getId(), target.getId(), "VIEW");
         verify(emailService).sendShareNotification(
                 eq("target@gmail.com"),
                 eq(item.getName()),
@@ -416,12 +484,12 @@ public class ItemServiceTest {
                 itemService.shareItem(item.getId(), request)
         );
 
-        verify(filePermissionRepo, never()).save(any());
+        verify(filePermissionRepo, never()).share(any(), any(), any());
         verify(emailService, never()).sendShareNotification(any(), any(), any());
     }
 
     @Test
-    void shareFolder_recursivePermissionCreated() {
+    void shareFolder_storesOnePermissionOnTheFolder() {
         Users owner = Users.builder()
                 .id(UUID.randomUUID())
                 .email("owner@gmail.com")
@@ -439,20 +507,6 @@ public class ItemServiceTest {
                 .owner(owner)
                 .build();
 
-        Items childFile = Items.builder()
-                .id(UUID.randomUUID())
-                .name("file.txt")
-                .type(ItemType.FILE)
-                .parent(rootFolder)
-                .build();
-
-        Items childFolder = Items.builder()
-                .id(UUID.randomUUID())
-                .name("sub")
-                .type(ItemType.FOLDER)
-                .parent(rootFolder)
-                .build();
-
         ShareFileRequest request = ShareFileRequest.builder()
                 .email("target@gmail.com")
                 .permission(PermissionLevel.VIEW)
@@ -464,15 +518,12 @@ public class ItemServiceTest {
         when(userRepo.findByEmail("target@gmail.com"))
                 .thenReturn(Optional.of(target));
 
-        when(itemRepo.findByParent(rootFolder))
-                .thenReturn(List.of(childFile, childFolder));
-
-        when(itemRepo.findByParent(childFolder))
-                .thenReturn(List.of());
-
         itemService.shareItem(rootFolder.getId(), request);
 
-        verify(filePermissionRepo, atLeast(3)).save(any(FilePermission.class));
+        // one statement for the folder, the children are resolved through it
+        verify(filePermissionRepo).share(rootFolder.getId(), target.getId(), "VIEW");
+        verify(filePermissionRepo, never()).save(any());
+        verify(itemRepo, never()).findByParent(any());
         verify(emailService).sendShareNotification(any(), any(), any());
     }
 
@@ -497,6 +548,28 @@ public class ItemServiceTest {
         verify(itemRepo).save(item);
     }
 
+    @Test
+    void softDelete_itemFromPermissionCheck_shouldNotLoadItAgain() {
+        Users owner = Users.builder()
+                .id(UUID.randomUUID())
+                .build();
+
+        Items item = Items.builder()
+                .id(UUID.randomUUID())
+                .owner(owner)
+                .build();
+
+        when(currentUserUtils.getCurrentUser()).thenReturn(owner);
+        // @PreAuthorize already loaded it for this request
+        when(authorizationContext.item(item.getId())).thenReturn(Optional.of(item));
+
+        itemService.softDelete(item.getId());
+
+        assertNotNull(item.getDeletedAt());
+        verify(itemRepo, never()).findById(any());
+        verify(itemRepo).save(item);
+    }
+
     @Test
     void softDelete_itemNotFound_shouldThrow() {
         UUID itemId = UUID.randomUUID();
@@ -524,17 +597,12 @@ public class ItemServiceTest {
                 .owner(owner)
                 .build();
 
-        FilePermission viewPermission = FilePermission.builder()
-                .item(item)
-                .sharedToUser(user)
-                .permissionLevel(PermissionLevel.VIEW)
-                .build();
 
         when(currentUserUtils.getCurrentUser()).thenReturn(user);
         when(itemRepo.findById(item.getId()))
                 .thenReturn(Optional.of(item));
-        when(filePermissionRepo.findByItemAndSharedToUser(item, user))
-                .thenReturn(Optional.of(viewPermission));
+        when(permissionService.resolveLevel(user.getId(), item.getId()))
+                .thenReturn(PermissionLevel.VIEW);
 
         assertThrows(InvalidRequestException.class, () ->
                 itemService.softDelete(item.getId())
@@ -553,17 +621,12 @@ public class ItemServiceTest {
                 .owner(owner)
                 .build();
 
-        FilePermission editPermission = FilePermission.builder()
-                .item(item)
-                .sharedToUser(editor)
-                .permissionLevel(PermissionLevel.EDIT)
-                .build();
 
         when(currentUserUtils.getCurrentUser()).thenReturn(editor);
         when(itemRepo.findById(item.getId()))
                 .thenReturn(Optional.of(item));
-        when(filePermissionRepo.findByItemAndSharedToUser(item, editor))
-                .thenReturn(Optional.of(editPermission));
+        when(permissionService.resolveLevel(editor.getId(), item.getId()))
+                .thenReturn(PermissionLevel.EDIT);
 
         itemService.softDelete(item.getId());
 
@@ -579,7 +642,7 @@ public class ItemServiceTest {
                 .thenReturn(Optional.empty());
 
         assertThrows(NotFoundException.class, () ->
-                itemService.downloadFile(itemId)
+                itemService.downloadFile(itemId, new HttpHeaders())
         );
     }
     private Path createTempFile() throws IOException {
@@ -610,7 +673,7 @@ public class ItemServiceTest {
         when(itemRepo.findById(itemId)).thenReturn(Optional.of(item));
         when(currentUserUtils.getCurrentUser()).thenReturn(owner);
 
-        ResponseEntity<?> response = itemService.downloadFile(itemId);
+        ResponseEntity<?> response = itemService.downloadFile(itemId, new HttpHeaders());
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertEquals("text/plain", response.getHeaders().getContentType().toString());
@@ -618,11 +681,243 @@ public class ItemServiceTest {
                 .getFirst(HttpHeaders.CONTENT_DISPOSITION)
                 .contains("test.txt"));
 
-        assertTrue(response.getBody() instanceof InputStreamResource);
+        // local files are handed to the zero-copy writer with their exact length
+        assertEquals(new FileRegion(filePath, 0, 5), response.getBody());
+        assertEquals(5, response.getHeaders().getContentLength());
     }
 
 
 
+    @Test
+    void downloadFile_compressedBlob_acceptGzip_shouldPassThrough() throws Exception {
+        UUID itemId = UUID.randomUUID();
+
+        Users owner = new Users();
+        owner.setId(UUID.randomUUID());
+
+        String key = "blobs/aa/bb/" + UUID.randomUUID() + ".gz";
+        Path stored = Path.of("storage", key);
+        Files.createDirectories(stored.getParent());
+        try (var out = new java.util.zip.GZIPOutputStream(Files.newOutputStream(stored))) {
+            out.write("hello".getBytes());
+        }
+
+        Items item = Items.builder()
+                .id(itemId)
+                .type(ItemType.FILE)
+                .owner(owner)
+                .path(key)
+                .name("log.txt")
+                .mimeType("text/plain")
+                .build();
+
+        when(itemRepo.findById(itemId)).thenReturn(Optional.of(item));
+        when(currentUserUtils.getCurrentUser()).thenReturn(owner);
+
+        HttpHeaders acceptGzip = new HttpHeaders();
+        acceptGzip.set(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate, br");
+        ResponseEntity<?> gzip = itemService.downloadFile(itemId, acceptGzip);
+        ResponseEntity<?> identity = itemService.downloadFile(itemId, new HttpHeaders());
+
+        assertEquals("gzip", gzip.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertNull(identity.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING, identity.getHeaders().getFirst(HttpHeaders.VARY));
+        try (var in = ((InputStreamResource) identity.getBody()).getInputStream()) {
+            assertEquals("hello", new String(in.readAllBytes()));
+        }
+        assertTrue(gzip.getBody() instanceof FileRegion);
+        Files.deleteIfExists(stored);
+    }
+
+    private Items ownedFile(Users owner, Path filePath) {
+        return Items.builder()
+                .id(UUID.randomUUID())
+                .type(ItemType.FILE)
+                .owner(owner)
+                .path(filePath.toString())
+                .name("digits.txt")
+                .mimeType("text/plain")
+                .updatedDate(java.time.Instant.parse("2024-01-01T00:00:00Z"))
+                .build();
+    }
+
+    @Test
+    void downloadFile_singleRange_shouldReturnPartialContent() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        Path filePath = Files.createTempFile("range-", ".txt");
+        Files.writeString(filePath, "0123456789");
+        Items item = ownedFile(owner, filePath);
+
+        when(itemRepo.findById(item.getId())).thenReturn(Optional.of(item));
+        when(currentUserUtils.getCurrentUser()).thenReturn(owner);
+
+        HttpHeaders request = new HttpHeaders();
+        request.set(HttpHeaders.RANGE, "bytes=2-5");
+        request.set(HttpHeaders.IF_RANGE, "Mon, 01 Jan 2024 00:00:00 GMT");
+        ResponseEntity<?> response = itemService.downloadFile(item.getId(), request);
+
+        assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertEquals("bytes 2-5/10", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(4, response.getHeaders().getContentLength());
+        assertEquals(new FileRegion(filePath, 2, 4), response.getBody());
+        Files.deleteIfExists(filePath);
+    }
+
+    @Test
+    void downloadFile_multiRange_shouldReturnByteranges() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        Path filePath = Files.createTempFile("range-", ".txt");
+        Files.writeString(filePath, "0123456789");
+        Items item = ownedFile(owner, filePath);
+
+        when(itemRepo.findById(item.getId())).thenReturn(Optional.of(item));
+        when(currentUserUtils.getCurrentUser()).thenReturn(owner);
+
+        HttpHeaders request = new HttpHeaders();
+        request.set(HttpHeaders.RANGE, "bytes=0-1,-2");
+        ResponseEntity<?> response = itemService.downloadFile(item.getId(), request);
+
+        assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertEquals("multipart", response.getHeaders().getContentType().getType());
+        String boundary = response.getHeaders().getContentType().getParameter("boundary");
+        String body;
+        try (var in = ((InputStreamResource) response.getBody()).getInputStream()) {
+            body = new String(in.readAllBytes());
+        }
+        assertEquals(response.getHeaders().getContentLength(), body.length());
+        assertTrue(body.contains("Content-Range: bytes 0-1/10\r\n\r\n01\r\n--" + boundary));
+        assertTrue(body.contains("Content-Range: bytes 8-9/10\r\n\r\n89\r\n--" + boundary + "--"));
+        Files.deleteIfExists(filePath);
+    }
+
+    @Test
+    void downloadFile_unsatisfiableRange_shouldReturn416() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        Path filePath = Files.createTempFile("range-", ".txt");
+        Files.writeString(filePath, "0123456789");
+        Items item = ownedFile(owner, filePath);
+
+        when(itemRepo.findById(item.getId())).thenReturn(Optional.of(item));
+        when(currentUserUtils.getCurrentUser()).thenReturn(owner);
+
+        HttpHeaders request = new HttpHeaders();
+        request.set(HttpHeaders.RANGE, "bytes=20-30");
+        ResponseEntity<?> response = itemService.downloadFile(item.getId(), request);
+
+        assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatusCode());
+        assertEquals("bytes */10", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        Files.deleteIfExists(filePath);
+    }
+
+    @Test
+    void downloadFile_staleIfRange_shouldReturnWholeFile() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        Path filePath = Files.createTempFile("range-", ".txt");
+        Files.writeString(filePath, "0123456789");
+        Items item = ownedFile(owner, filePath);
+
+        when(itemRepo.findById(item.getId())).thenReturn(Optional.of(item));
+        when(currentUserUtils.getCurrentUser()).thenReturn(owner);
+
+        HttpHeaders request = new HttpHeaders();
+        request.set(HttpHeaders.RANGE, "bytes=2-5");
+        request.set(HttpHeaders.IF_RANGE, "Sun, 31 Dec 2023 00:00:00 GMT");
+        ResponseEntity<?> response = itemService.downloadFile(item.getId(), request);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("bytes", response.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES));
+        assertEquals(new FileRegion(filePath, 0, 10), response.getBody());
+        Files.deleteIfExists(filePath);
+    }
+
+    @Test
+    void downloadFile_ifNoneMatch_shouldReturn304WithoutOpeningFile() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        Items item = ownedFile(owner, Path.of("missing-on-disk.txt"));
+        item.setContentHash("2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824");
+
+        when(itemRepo.findById(item.getId())).thenReturn(Optional.of(item));
+        when(currentUserUtils.getCurrentUser()).thenReturn(owner);
+
+        HttpHeaders request = new HttpHeaders();
+        request.setIfNoneMatch("\"2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824\"");
+        ResponseEntity<?> response = itemService.downloadFile(item.getId(), request);
+
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        assertEquals("\"2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824\"", response.getHeaders().getETag());
+        assertNull(response.getBody());
+        verify(storageBackend, never()).exists(any());
+    }
+
+    @Test
+    void downloadFile_ifModifiedSince_shouldReturn304() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        Items item = ownedFile(owner, Path.of("missing-on-disk.txt"));
+
+        when(itemRepo.findById(item.getId())).thenReturn(Optional.of(item));
+        when(currentUserUtils.getCurrentUser()).thenReturn(owner);
+
+        HttpHeaders request = new HttpHeaders();
+        request.setIfModifiedSince(java.time.Instant.parse("2024-01-02T00:00:00Z"));
+        ResponseEntity<?> response = itemService.downloadFile(item.getId(), request);
+
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        verify(storageBackend, never()).get(any());
+    }
+
+    @Test
+    void getSearchETag_shouldFollowTheResultRows() {
+        Users user = Users.builder().id(UUID.randomUUID()).build();
+        FileSearchRequest request = FileSearchRequest.builder().q("report").type("FILE").build();
+        ItemResponseDto a = ItemResponseDto.from(Items.builder().id(UUID.randomUUID()).name("a.pdf").type(ItemType.FILE).build());
+        ItemResponseDto b = ItemResponseDto.from(Items.builder().id(UUID.randomUUID()).name("b.pdf").type(ItemType.FILE).build());
+        ItemResponseDto renamed = ItemResponseDto.from(Items.builder().id(b.getId()).name("c.pdf").type(ItemType.FILE).build());
+
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+
+        String first = itemService.getSearchETag(request, List.of(a, b));
+        String reordered = itemService.getSearchETag(request, List.of(b, a));
+        String changed = itemService.getSearchETag(request, List.of(a, renamed));
+
+        assertTrue(first.startsWith("W/\""));
+        assertEquals(first, reordered);
+        assertNotEquals(first, changed);
+        // derived from the rows already loaded, no second query
+        verifyNoInteractions(itemRepo);
+    }
+
+    @Test
+    void search_inVisibleFolder_shouldListChildrenWithoutVisibleSet() {
+        Users user = Users.builder().id(UUID.randomUUID()).build();
+        UUID folderId = UUID.randomUUID();
+        Items child = Items.builder().id(UUID.randomUUID()).name("report.pdf").type(ItemType.FILE).build();
+        FileSearchRequest request = FileSearchRequest.builder().q("report").parentId(folderId).build();
+
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        when(permissionService.resolveLevel(user.getId(), folderId)).thenReturn(PermissionLevel.VIEW);
+        when(itemRepo.listChildren(folderId, "report", null, null, null, null)).thenReturn(List.of(child));
+
+        List<ItemResponseDto> result = itemService.search(request);
+
+        assertEquals(1, result.size());
+        verify(itemRepo, never()).search(any(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void search_inFolderNotVisible_shouldFallBackToFullSearch() {
+        Users user = Users.builder().id(UUID.randomUUID()).build();
+        UUID folderId = UUID.randomUUID();
+        FileSearchRequest request = FileSearchRequest.builder().parentId(folderId).build();
+
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        when(permissionService.resolveLevel(user.getId(), folderId)).thenReturn(null);
+        // items shared on their own inside the folder are still found
+        when(itemRepo.search(user.getId(), null, null, null, folderId, null, null)).thenReturn(List.of());
+
+        assertTrue(itemService.search(request).isEmpty());
+        verify(itemRepo, never()).listChildren(any(), any(), any(), any(), any(), any());
+    }
+
     @Test
     void downloadFile_nonOwner_noPermission_shouldThrow() {
         Users owner = Users.builder().id(UUID.randomUUID()).build();
@@ -638,11 +933,11 @@ public class ItemServiceTest {
                 .thenReturn(Optional.of(file));
         when(currentUserUtils.getCurrentUser())
                 .thenReturn(user);
-        when(filePermissionRepo.findByItemAndSharedToUser(file, user))
-                .thenReturn(Optional.empty());
+        when(permissionService.resolveLevel(user.getId(), file.getId()))
+                .thenReturn(null);
 
         assertThrows(InvalidRequestException.class, () ->
-                itemService.downloadFile(file.getId())
+                itemService.downloadFile(file.getId(), new HttpHeaders())
         );
     }
     @Test
@@ -666,16 +961,13 @@ public class ItemServiceTest {
                 .mimeType("text/plain")
                 .build();
 
-        FilePermission permission = FilePermission.builder()
-                .permissionLevel(PermissionLevel.VIEW)
-                .build();
 
         when(itemRepo.findById(itemId)).thenReturn(Optional.of(item));
         when(currentUserUtils.getCurrentUser()).thenReturn(sharedUser);
-        when(filePermissionRepo.findByItemAndSharedToUser(item, sharedUser))
-                .thenReturn(Optional.of(permission));
+        when(permissionService.resolveLevel(sharedUser.getId(), item.getId()))
+                .thenReturn(PermissionLevel.VIEW);
 
-        ResponseEntity<?> response = itemService.downloadFile(itemId);
+        ResponseEntity<?> response = itemService.downloadFile(itemId, new HttpHeaders());
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
     }
@@ -699,11 +991,11 @@ public class ItemServiceTest {
 
         when(itemRepo.findById(itemId)).thenReturn(Optional.of(item));
         when(currentUserUtils.getCurrentUser()).thenReturn(currentUser);
-        when(filePermissionRepo.findByItemAndSharedToUser(item, currentUser))
-                .thenReturn(Optional.empty());
+        when(permissionService.resolveLevel(currentUser.getId(), item.getId()))
+                .thenReturn(null);
 
         assertThrows(InvalidRequestException.class,
-                () -> itemService.downloadFile(itemId));
+                () -> itemService.downloadFile(itemId, new HttpHeaders()));
     }
 
 
@@ -738,7 +1030,7 @@ public class ItemServiceTest {
 
         when(currentUserUtils.getCurrentUser())
                 .thenReturn(user);
-        when(filePermissionRepo.findBySharedToUser(user))
+        when(filePermissionRepo.findBySharedToUserAndInheritedFalse(user))
                 .thenReturn(List.of(p1, p2));
 
         List<SharedItemResponseDto> result =
@@ -755,7 +1047,7 @@ public class ItemServiceTest {
 
         when(currentUserUtils.getCurrentUser())
                 .thenReturn(user);
-        when(filePermissionRepo.findBySharedToUser(user))
+        when(filePermissionRepo.findBySharedToUserAndInheritedFalse(user))
                 .thenReturn(List.of());
 
         List<SharedItemResponseDto> result =
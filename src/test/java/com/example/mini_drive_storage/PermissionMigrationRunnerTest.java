@@ -0,0 +1,55 @@
+package com.example.mini_drive_storage;
+
+import com.example.mini_drive_storage.repo.FilePermissionRepo;
+import com.example.mini_drive_storage.scheduler.PermissionMigrationRunner;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PermissionMigrationRunnerTest {
+    @Mock
+    private FilePermissionRepo filePermissionRepo;
+
+    @InjectMocks
+    private PermissionMigrationRunner permissionMigrationRunner;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(permissionMigrationRunner, "batchSize", 100);
+    }
+
+    @Test
+    void run_shouldDeleteBatchesUntilOneIsShort() {
+        when(filePermissionRepo.deleteInherited(100)).thenReturn(100, 100, 37);
+
+        permissionMigrationRunner.run(new DefaultApplicationArguments());
+
+        verify(filePermissionRepo, times(3)).deleteInherited(100);
+    }
+
+    @Test
+    void run_nothingLeft_shouldStopAfterOneBatch() {
+        when(filePermissionRepo.deleteInherited(100)).thenReturn(0);
+
+        permissionMigrationRunner.run(new DefaultApplicationArguments());
+
+        verify(filePermissionRepo, times(1)).deleteInherited(100);
+    }
+
+    @Test
+    void run_lastBatchExactlyFull_shouldCheckOnceMore() {
+        when(filePermissionRepo.deleteInherited(100)).thenReturn(100, 0);
+
+        permissionMigrationRunner.run(new DefaultApplicationArguments());
+
+        verify(filePermissionRepo, times(2)).deleteInherited(100);
+    }
+}
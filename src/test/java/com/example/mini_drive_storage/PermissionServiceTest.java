@@ -1,21 +1,44 @@
 package com.example.mini_drive_storage;
 
+import com.example.mini_drive_storage.dto.EffectiveLevel;
+import com.example.mini_drive_storage.entity.Items;
+import com.example.mini_drive_storage.entity.PermissionChange;
 import com.example.mini_drive_storage.entity.Users;
 import com.example.mini_drive_storage.enums.PermissionLevel;
 import com.example.mini_drive_storage.repo.FilePermissionRepo;
 import com.example.mini_drive_storage.repo.ItemRepo;
+import com.example.mini_drive_storage.repo.PermissionChangeRepo;
+import com.example.mini_drive_storage.service.AuthorizationContext;
+import com.example.mini_drive_storage.service.PermissionDecisionCache;
 import com.example.mini_drive_storage.service.PermissionService;
 import com.example.mini_drive_storage.utils.CurrentUserUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -30,9 +53,55 @@ class PermissionServiceTest {
     @Mock
     private CurrentUserUtils currentUserUtils;
 
-    @InjectMocks
+    @Mock
+    private PermissionChangeRepo permissionChangeRepo;
+
+    private PermissionDecisionCache decisionCache;
+
     private PermissionService permissionService;
 
+    private final AuthorizationContext authorizationContext = new AuthorizationContext();
+
+    @BeforeEach
+    void setUp() {
+        decisionCache = new PermissionDecisionCache(new SimpleMeterRegistry(), permissionChangeRepo, 1000, 60, 30);
+        permissionService = new PermissionService(itemRepo, filePermissionRepo, currentUserUtils,
+                decisionCache, authorizationContext);
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    private static Items item(UUID itemId, Users owner) {
+        Items item = new Items();
+        item.setId(itemId);
+        item.setOwner(owner);
+        return item;
+    }
+
+    private static Users otherUser() {
+        Users owner = new Users();
+        owner.setId(UUID.randomUUID());
+        return owner;
+    }
+
+    private static EffectiveLevel resolved(String level, UUID... chain) {
+        String ancestors = Arrays.stream(chain).map(UUID::toString).collect(Collectors.joining(","));
+        return new EffectiveLevel() {
+            @Override
+            public String getLevel() {
+                return level;
+            }
+
+            @Override
+            public String getAncestors() {
+                return ancestors;
+            }
+        };
+    }
+
     @Test
     void canEditItem_owner_shouldReturnTrue() {
         UUID itemId = UUID.randomUUID();
@@ -41,7 +110,25 @@ class PermissionServiceTest {
         user.setId(userId);
 
         when(currentUserUtils.getCurrentUser()).thenReturn(user);
-        when(itemRepo.existsByIdAndOwnerId(itemId, userId)).thenReturn(true);
+        when(itemRepo.findById(itemId)).thenReturn(Optional.of(item(itemId, user)));
+
+        boolean result = permissionService.canEditItem(itemId);
+        assertTrue(result);
+        // the owner is answered from the item row, no level query
+        verifyNoInteractions(filePermissionRepo);
+    }
+
+    @Test
+    void canEditItem_ownerOfFolderAbove_shouldReturnTrue() {
+        UUID itemId = UUID.randomUUID();
+        UUID userId = UUID.randomUUID();
+        Users user = new Users();
+        user.setId(userId);
+
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        when(itemRepo.findById(itemId)).thenReturn(Optional.of(item(itemId, otherUser())));
+        // the owner of a folder above the item resolves to EDIT
+        when(filePermissionRepo.findEffectiveLevel(userId, itemId)).thenReturn(resolved("EDIT", itemId));
 
         boolean result = permissionService.canEditItem(itemId);
         assertTrue(result);
@@ -54,8 +141,8 @@ class PermissionServiceTest {
         Users user = new Users();
         user.setId(userId);
         when(currentUserUtils.getCurrentUser()).thenReturn(user);
-        when(itemRepo.existsByIdAndOwnerId(itemId, userId)).thenReturn(false);
-        when(filePermissionRepo.existsByItemIdAndSharedToUserIdAndPermissionLevel(itemId, userId, PermissionLevel.EDIT)).thenReturn(true);
+        when(itemRepo.findById(itemId)).thenReturn(Optional.of(item(itemId, otherUser())));
+        when(filePermissionRepo.findEffectiveLevel(userId, itemId)).thenReturn(resolved("EDIT", itemId));
         boolean result = permissionService.canEditItem(itemId);
         assertTrue(result);
     }
@@ -66,8 +153,8 @@ class PermissionServiceTest {
         Users user = new Users();
         user.setId(userId);
         when(currentUserUtils.getCurrentUser()).thenReturn(user);
-        when(itemRepo.existsByIdAndOwnerId(itemId, userId)).thenReturn(false);
-        when(filePermissionRepo.existsByItemIdAndSharedToUserIdAndPermissionLevel(itemId, userId, PermissionLevel.EDIT)).thenReturn(false);
+        when(itemRepo.findById(itemId)).thenReturn(Optional.of(item(itemId, otherUser())));
+        when(filePermissionRepo.findEffectiveLevel(userId, itemId)).thenReturn(resolved("VIEW", itemId));
         boolean result = permissionService.canEditItem(itemId);
         assertFalse(result);
 
@@ -80,8 +167,8 @@ class PermissionServiceTest {
         Users user = new Users();
         user.setId(userId);
         when(currentUserUtils.getCurrentUser()).thenReturn(user);
-        when(itemRepo.existsByIdAndOwnerId(itemId, userId)).thenReturn(false);
-        when(filePermissionRepo.existsByItemIdAndSharedToUserId(itemId, userId)).thenReturn(true);
+        when(itemRepo.findById(itemId)).thenReturn(Optional.of(item(itemId, otherUser())));
+        when(filePermissionRepo.findEffectiveLevel(userId, itemId)).thenReturn(resolved("VIEW", itemId));
         boolean result = permissionService.canViewItem(itemId);
         assertTrue(result);
     }
@@ -93,9 +180,157 @@ class PermissionServiceTest {
         Users user = new Users();
         user.setId(userId);
         when(currentUserUtils.getCurrentUser()).thenReturn(user);
-        when(itemRepo.existsByIdAndOwnerId(itemId, userId)).thenReturn(false);
-        when(filePermissionRepo.existsByItemIdAndSharedToUserId(itemId, userId)).thenReturn(false);
+        when(itemRepo.findById(itemId)).thenReturn(Optional.of(item(itemId, otherUser())));
+        when(filePermissionRepo.findEffectiveLevel(userId, itemId)).thenReturn(resolved(null, itemId));
         boolean result = permissionService.canViewItem(itemId);
         assertFalse(result);
     }
+
+    @Test
+    void canViewItems_allViewable_shouldCheckOnceAndReturnTrue() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        Users user = new Users();
+        user.setId(UUID.randomUUID());
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        when(itemRepo.countViewable(user.getId(), Set.of(first, second))).thenReturn(2L);
+
+        // the same item picked twice counts once
+        assertTrue(permissionService.canViewItems(List.of(first, second, first)));
+    }
+
+    @Test
+    void canViewItems_oneNotViewable_shouldReturnFalse() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        Users user = new Users();
+        user.setId(UUID.randomUUID());
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        when(itemRepo.countViewable(user.getId(), Set.of(first, second))).thenReturn(1L);
+
+        assertFalse(permissionService.canViewItems(List.of(first, second)));
+    }
+
+    @Test
+    void resolveLevel_repeated_shouldQueryOnce() {
+        UUID itemId = UUID.randomUUID();
+        UUID userId = UUID.randomUUID();
+        when(filePermissionRepo.findEffectiveLevel(userId, itemId)).thenReturn(resolved("VIEW", itemId));
+
+        assertEquals(PermissionLevel.VIEW, permissionService.resolveLevel(userId, itemId));
+        assertEquals(PermissionLevel.VIEW, permissionService.resolveLevel(userId, itemId));
+
+        verify(filePermissionRepo, times(1)).findEffectiveLevel(userId, itemId);
+    }
+
+    @Test
+    void resolveLevel_noAccess_shouldBeCachedToo() {
+        UUID itemId = UUID.randomUUID();
+        UUID userId = UUID.randomUUID();
+        when(filePermissionRepo.findEffectiveLevel(userId, itemId)).thenReturn(resolved(null, itemId));
+
+        assertNull(permissionService.resolveLevel(userId, itemId));
+        assertNull(permissionService.resolveLevel(userId, itemId));
+
+        verify(filePermissionRepo, times(1)).findEffectiveLevel(userId, itemId);
+    }
+
+    @Test
+    void onShareChanged_shouldDropOnlyThatUsersDecisionsUnderTheItem() {
+        UUID folderId = UUID.randomUUID();
+        UUID fileId = UUID.randomUUID();
+        UUID otherFileId = UUID.randomUUID();
+        UUID userId = UUID.randomUUID();
+        UUID otherUserId = UUID.randomUUID();
+        when(filePermissionRepo.findEffectiveLevel(userId, fileId))
+                .thenReturn(resolved("VIEW", fileId, folderId), resolved("EDIT", fileId, folderId));
+        when(filePermissionRepo.findEffectiveLevel(userId, otherFileId)).thenReturn(resolved("VIEW", otherFileId));
+        when(filePermissionRepo.findEffectiveLevel(otherUserId, fileId)).thenReturn(resolved("VIEW", fileId, folderId));
+        permissionService.resolveLevel(userId, fileId);
+        permissionService.resolveLevel(userId, otherFileId);
+        permissionService.resolveLevel(otherUserId, fileId);
+
+        // the folder above the file was shared again with EDIT
+        permissionService.onShareChanged(folderId, userId);
+
+        assertEquals(PermissionLevel.EDIT, permissionService.resolveLevel(userId, fileId));
+        assertEquals(PermissionLevel.VIEW, permissionService.resolveLevel(userId, otherFileId));
+        assertEquals(PermissionLevel.VIEW, permissionService.resolveLevel(otherUserId, fileId));
+        verify(filePermissionRepo, times(2)).findEffectiveLevel(userId, fileId);
+        verify(filePermissionRepo, times(1)).findEffectiveLevel(userId, otherFileId);
+        verify(filePermissionRepo, times(1)).findEffectiveLevel(otherUserId, fileId);
+        // written for the other nodes
+        verify(permissionChangeRepo).record(folderId, userId);
+    }
+
+    @Test
+    void pollChanges_shareChangedOnAnotherNode_shouldDropThatUsersDecisionsOnce() {
+        UUID folderId = UUID.randomUUID();
+        UUID fileId = UUID.randomUUID();
+        UUID userId = UUID.randomUUID();
+        UUID otherUserId = UUID.randomUUID();
+        when(filePermissionRepo.findEffectiveLevel(userId, fileId))
+                .thenReturn(resolved("EDIT", fileId, folderId), resolved("VIEW", fileId, folderId));
+        when(filePermissionRepo.findEffectiveLevel(otherUserId, fileId)).thenReturn(resolved("EDIT", fileId, folderId));
+        permissionService.resolveLevel(userId, fileId);
+        permissionService.resolveLevel(otherUserId, fileId);
+        // another node downgraded the folder's share to VIEW
+        PermissionChange change = new PermissionChange(1L, folderId, userId, Instant.now());
+        when(permissionChangeRepo.findRecent(30)).thenReturn(List.of(change));
+
+        decisionCache.pollChanges();
+        assertEquals(PermissionLevel.VIEW, permissionService.resolveLevel(userId, fileId));
+        // the row is still in the window on the next poll, it is not applied twice
+        decisionCache.pollChanges();
+        assertEquals(PermissionLevel.VIEW, permissionService.resolveLevel(userId, fileId));
+
+        assertEquals(PermissionLevel.EDIT, permissionService.resolveLevel(otherUserId, fileId));
+        verify(filePermissionRepo, times(2)).findEffectiveLevel(userId, fileId);
+        verify(filePermissionRepo, times(1)).findEffectiveLevel(otherUserId, fileId);
+    }
+
+    @Test
+    void canViewItem_insideRequest_shouldLeaveItemAndLevelForTheService() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        UUID itemId = UUID.randomUUID();
+        Users user = new Users();
+        user.setId(UUID.randomUUID());
+        Items item = item(itemId, otherUser());
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        when(itemRepo.findById(itemId)).thenReturn(Optional.of(item));
+        when(filePermissionRepo.findEffectiveLevel(user.getId(), itemId)).thenReturn(resolved("VIEW", itemId));
+
+        assertTrue(permissionService.canViewItem(itemId));
+
+        assertSame(item, authorizationContext.item(itemId).orElseThrow());
+        assertEquals(PermissionLevel.VIEW, permissionService.resolveLevel(user.getId(), itemId));
+        // another user of the same item is not answered from this request's check
+        assertTrue(authorizationContext.level(UUID.randomUUID(), itemId).isEmpty());
+    }
+
+    @Test
+    void canViewItem_denied_shouldRecordNothing() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        UUID itemId = UUID.randomUUID();
+        Users user = new Users();
+        user.setId(UUID.randomUUID());
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        when(itemRepo.findById(itemId)).thenReturn(Optional.of(item(itemId, otherUser())));
+        when(filePermissionRepo.findEffectiveLevel(user.getId(), itemId)).thenReturn(resolved(null, itemId));
+
+        assertFalse(permissionService.canViewItem(itemId));
+        assertTrue(authorizationContext.item(itemId).isEmpty());
+    }
+
+    @Test
+    void canViewItem_missingItem_shouldReturnFalse() {
+        UUID itemId = UUID.randomUUID();
+        Users user = new Users();
+        user.setId(UUID.randomUUID());
+        when(currentUserUtils.getCurrentUser()).thenReturn(user);
+        when(itemRepo.findById(itemId)).thenReturn(Optional.empty());
+
+        assertFalse(permissionService.canViewItem(itemId));
+        verifyNoInteractions(filePermissionRepo);
+    }
 }
@@ -0,0 +1,272 @@
+package com.example.mini_drive_storage;
+
+import com.example.mini_drive_storage.dto.CreateUploadSessionRequest;
+import com.example.mini_drive_storage.entity.Blob;
+import com.example.mini_drive_storage.entity.Items;
+import com.example.mini_drive_storage.entity.UploadSession;
+import com.example.mini_drive_storage.entity.UploadSessionChunk;
+import com.example.mini_drive_storage.entity.Users;
+import com.example.mini_drive_storage.exception.InvalidRequestException;
+import com.example.mini_drive_storage.exception.PermissionDeniedException;
+import com.example.mini_drive_storage.repo.UploadSessionChunkRepo;
+import com.example.mini_drive_storage.repo.UploadSessionRepo;
+import com.example.mini_drive_storage.service.BlobStoreService;
+import com.example.mini_drive_storage.service.ItemService;
+import com.example.mini_drive_storage.service.StorageLayout;
+import com.example.mini_drive_storage.service.UploadSessionService;
+import com.example.mini_drive_storage.utils.CurrentUserUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UploadSessionServiceTest {
+    private static final int CHUNK = 256 * 1024;
+
+    @Mock
+    private UploadSessionRepo uploadSessionRepo;
+    @Mock
+    private UploadSessionChunkRepo uploadSessionChunkRepo;
+    @Mock
+    private ItemService itemService;
+    @Mock
+    private BlobStoreService blobStoreService;
+    @Mock
+    private CurrentUserUtils currentUserUtils;
+    @Spy
+    private StorageLayout storageLayout = new StorageLayout(2, "storage/tmp");
+
+    @InjectMocks
+    private UploadSessionService uploadSessionService;
+
+    private UploadSession newSession(Users owner, long size) throws Exception {
+        Path temp = Files.createTempFile("upload-", ".part");
+        try (RandomAccessFile file = new RandomAccessFile(temp.toFile(), "rw")) {
+            file.setLength(size);
+        }
+        return UploadSession.builder()
+                .id(UUID.randomUUID())
+                .name("big.bin")
+                .totalSize(size)
+                .chunkSize((long) CHUNK)
+                .chunkCount((int) ((size + CHUNK - 1) / CHUNK))
+                .tempPath(temp.toString())
+                .owner(owner)
+                .expiresAt(Instant.now().plus(1, ChronoUnit.HOURS))
+                .build();
+    }
+
+    private byte[] filled(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    @Test
+    void writeChunk_outOfOrder_shouldLandAtOffsets() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        UploadSession session = newSession(owner, CHUNK + 10);
+
+        when(currentUserUtils.getCurrentUser()).thenReturn(owner);
+        when(uploadSessionRepo.findById(session.getId())).thenReturn(Optional.of(session));
+        when(uploadSessionRepo.beginWrite(session.getId())).thenReturn(1);
+
+        uploadSessionService.writeChunk(session.getId(), 1, new ByteArrayInputStream(filled(10, 2)));
+        uploadSessionService.writeChunk(session.getId(), 0, new ByteArrayInputStream(filled(CHUNK, 1)));
+
+        byte[] content = Files.readAllBytes(Path.of(session.getTempPath()));
+        assertEquals(CHUNK + 10, content.length);
+        assertEquals(1, content[0]);
+        assertEquals(1, content[CHUNK - 1]);
+        assertEquals(2, content[CHUNK]);
+        verify(uploadSessionChunkRepo, times(2)).save(any(UploadSessionChunk.class));
+        verify(uploadSessionRepo, times(2)).endWrite(session.getId());
+        Files.deleteIfExists(Path.of(session.getTempPath()));
+    }
+
+    @Test
+    void writeChunk_wrongLength_shouldThrowAndNotRecord() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        UploadSession session = newSession(owner, CHUNK + 10);
+
+        when(currentUserUtils.getCurrentUser()).thenReturn(owner);
+        when(uploadSessionRepo.findById(session.getId())).thenReturn(Optional.of(session));
+        when(uploadSessionRepo.beginWrite(session.getId())).thenReturn(1);
+
+        assertThrows(InvalidRequestException.class, () ->
+                uploadSessionService.writeChunk(session.getId(), 1, new ByteArrayInputStream(filled(11, 2)))
+        );
+        verify(uploadSessionChunkRepo, never()).save(any());
+        // a failed write no longer holds off the commit
+        verify(uploadSessionRepo).endWrite(session.getId());
+        Files.deleteIfExists(Path.of(session.getTempPath()));
+    }
+
+    @Test
+    void writeChunk_otherUser_shouldThrow() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        Users other = Users.builder().id(UUID.randomUUID()).build();
+        UploadSession session = newSession(owner, 10);
+
+        when(currentUserUtils.getCurrentUser()).thenReturn(other);
+        when(uploadSessionRepo.findById(session.getId())).thenReturn(Optional.of(session));
+
+        assertThrows(PermissionDeniedException.class, () ->
+                uploadSessionService.writeChunk(session.getId(), 0, new ByteArrayInputStream(filled(10, 1)))
+        );
+        Files.deleteIfExists(Path.of(session.getTempPath()));
+    }
+
+    @Test
+    void commit_incomplete_shouldThrow() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        UploadSession session = newSession(owner, CHUNK + 10);
+
+        when(currentUserUtils.getCurrentUser()).thenReturn(owner);
+        when(uploadSessionRepo.findById(session.getId())).thenReturn(Optional.of(session));
+        when(uploadSessionChunkRepo.countBySessionId(session.getId())).thenReturn(1L);
+
+        assertThrows(InvalidRequestException.class, () ->
+                uploadSessionService.commit(session.getId())
+        );
+        verify(blobStoreService, never()).adopt(any(), any());
+        Files.deleteIfExists(Path.of(session.getTempPath()));
+    }
+
+    @Test
+    void commit_complete_shouldCreateItem() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        UploadSession session = newSession(owner, 10);
+        Blob blob = Blob.builder().hash("abc").path("storage/blobs/abc").size(10L).refCount(1).build();
+        Items item = Items.builder().id(UUID.randomUUID()).name("big.bin").build();
+
+        when(currentUserUtils.getCurrentUser()).thenReturn(owner);
+        when(uploadSessionRepo.findById(session.getId())).thenReturn(Optional.of(session));
+        when(uploadSessionChunkRepo.countBySessionId(session.getId())).thenReturn(1L);
+        when(uploadSessionRepo.markCommitting(eq(session.getId()), any())).thenReturn(1);
+        when(blobStoreService.adopt(Path.of(session.getTempPath()), session.getMimeType())).thenReturn(blob);
+        when(itemService.createFileItem("big.bin", null, blob, null, owner)).thenReturn(item);
+
+        var result = uploadSessionService.commit(session.getId());
+
+        assertEquals(item.getId(), result.getId());
+        verify(uploadSessionRepo).delete(session);
+        Files.deleteIfExists(Path.of(session.getTempPath()));
+    }
+
+    @Test
+    void commit_concurrentCommit_shouldThrowWithoutAdopting() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        UploadSession session = newSession(owner, 10);
+
+        when(currentUserUtils.getCurrentUser()).thenReturn(owner);
+        when(uploadSessionRepo.findById(session.getId())).thenReturn(Optional.of(session));
+        when(uploadSessionChunkRepo.countBySessionId(session.getId())).thenReturn(1L);
+        // another request took the session first
+        when(uploadSessionRepo.markCommitting(eq(session.getId()), any())).thenReturn(0);
+
+        assertThrows(InvalidRequestException.class, () ->
+                uploadSessionService.commit(session.getId())
+        );
+        verify(blobStoreService, never()).adopt(any(), any());
+        Files.deleteIfExists(Path.of(session.getTempPath()));
+    }
+
+    @Test
+    void commit_itemCreationFails_shouldReleaseBlobAndDropSession() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        UploadSession session = newSession(owner, 10);
+        Blob blob = Blob.builder().hash("abc").path("storage/blobs/abc").size(10L).refCount(1).build();
+
+        when(currentUserUtils.getCurrentUser()).thenReturn(owner);
+        when(uploadSessionRepo.findById(session.getId())).thenReturn(Optional.of(session));
+        when(uploadSessionChunkRepo.countBySessionId(session.getId())).thenReturn(1L);
+        when(uploadSessionRepo.markCommitting(eq(session.getId()), any())).thenReturn(1);
+        when(blobStoreService.adopt(Path.of(session.getTempPath()), session.getMimeType())).thenReturn(blob);
+        when(itemService.createFileItem("big.bin", null, blob, null, owner)).thenThrow(new IllegalStateException("db down"));
+
+        assertThrows(IllegalStateException.class, () ->
+                uploadSessionService.commit(session.getId())
+        );
+        verify(blobStoreService).release("abc");
+        verify(uploadSessionRepo).delete(session);
+        Files.deleteIfExists(Path.of(session.getTempPath()));
+    }
+
+    @Test
+    void writeChunk_whileCommitting_shouldThrow() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        UploadSession session = newSession(owner, 10);
+        session.setCommittingAt(Instant.now());
+
+        when(currentUserUtils.getCurrentUser()).thenReturn(owner);
+        when(uploadSessionRepo.findById(session.getId())).thenReturn(Optional.of(session));
+        when(uploadSessionRepo.beginWrite(session.getId())).thenReturn(0);
+
+        assertThrows(InvalidRequestException.class, () ->
+                uploadSessionService.writeChunk(session.getId(), 0, new ByteArrayInputStream(filled(10, 1)))
+        );
+        verify(uploadSessionRepo, never()).endWrite(any());
+        assertEquals(0, Files.readAllBytes(Path.of(session.getTempPath()))[0]);
+        Files.deleteIfExists(Path.of(session.getTempPath()));
+    }
+
+    @Test
+    void deleteExpiredSession_whileCommitting_shouldKeepSession() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        UploadSession session = newSession(owner, 10);
+        session.setCommittingAt(Instant.now());
+        when(uploadSessionRepo.markDeleting(eq(session.getId()), any(), any())).thenReturn(0);
+
+        assertFalse(uploadSessionService.deleteExpiredSession(session));
+
+        assertTrue(Files.exists(Path.of(session.getTempPath())));
+        verify(uploadSessionRepo, never()).delete(any());
+        Files.deleteIfExists(Path.of(session.getTempPath()));
+    }
+
+    @Test
+    void deleteExpiredSession_idle_shouldDeleteFileAndSession() throws Exception {
+        Users owner = Users.builder().id(UUID.randomUUID()).build();
+        UploadSession session = newSession(owner, 10);
+        when(uploadSessionRepo.markDeleting(eq(session.getId()), any(), any())).thenReturn(1);
+
+        assertTrue(uploadSessionService.deleteExpiredSession(session));
+
+        assertFalse(Files.exists(Path.of(session.getTempPath())));
+        verify(uploadSessionRepo).delete(session);
+    }
+
+    @Test
+    void createSession_overMaxSize_shouldThrowBeforeAllocating() {
+        ReflectionTestUtils.setField(uploadSessionService, "maxSize", 1024L);
+        CreateUploadSessionRequest request = CreateUploadSessionRequest.builder()
+                .name("huge.bin")
+                .size(1025L)
+                .build();
+
+        assertThrows(InvalidRequestException.class, () ->
+                uploadSessionService.createSession(request)
+        );
+        verifyNoInteractions(itemService, uploadSessionRepo);
+    }
+}